@@ -18,20 +18,15 @@
 
 package org.oidc.agent.exception;
 
-import java.net.MalformedURLException;
-
 public class ClientException extends Throwable {
 
-    private String message;
-
     public ClientException(String msg) {
 
+        super(msg);
     }
 
-    public ClientException(String msg, Exception e) {
-    }
+    public ClientException(String msg, Throwable e) {
 
-    public String getMessage(){
-       return message;
+        super(msg, e);
     }
 }
@@ -20,16 +20,13 @@ package org.oidc.agent.exception;
 
 public class ServerException extends Throwable {
 
-    private String message;
-
     public ServerException(String msg) {
-        this.message = msg;
-    }
 
-    public ServerException(String msg, Exception e) {
+        super(msg);
     }
 
-    public String getMessage() {
-        return message;
+    public ServerException(String msg, Throwable e) {
+
+        super(msg, e);
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation spanning several network calls must be done. Each call
+ * made for the operation bounds its connect and read timeouts by the time that is left, so the
+ * operation as a whole cannot outlast its deadline.
+ */
+public final class Deadline {
+
+    /**
+     * A deadline that never expires.
+     */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long mExpiresAt;
+
+    private Deadline(long expiresAt) {
+
+        mExpiresAt = expiresAt;
+    }
+
+    /**
+     * Returns a deadline that expires after the given time from now.
+     *
+     * @param timeout Time budget, 0 or less for no deadline.
+     * @param unit    Unit of the timeout.
+     * @return Deadline.
+     */
+    @NonNull
+    public static Deadline after(long timeout, @NonNull TimeUnit unit) {
+
+        if (timeout <= 0) {
+            return NONE;
+        }
+        return new Deadline(SystemClock.elapsedRealtime() + unit.toMillis(timeout));
+    }
+
+    /**
+     * Returns whether the deadline ever expires.
+     *
+     * @return false for {@link #NONE}.
+     */
+    public boolean isBounded() {
+
+        return mExpiresAt != Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the time that is left.
+     *
+     * @return Remaining time in milliseconds, 0 once expired, {@link Long#MAX_VALUE} if the
+     * deadline is not bounded.
+     */
+    public long remainingMillis() {
+
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(mExpiresAt - SystemClock.elapsedRealtime(), 0);
+    }
+
+    public boolean isExpired() {
+
+        return remainingMillis() == 0;
+    }
+
+    /**
+     * Bounds a socket timeout by the time that is left. Transports pass the timeout they would
+     * use without a deadline, i.e. the request's value or else their own default.
+     *
+     * @param timeoutMillis Timeout in milliseconds, 0 for no timeout.
+     * @return Bounded timeout in milliseconds, never 0 if the deadline is bounded.
+     */
+    public int bound(int timeoutMillis) {
+
+        if (!isBounded()) {
+            return timeoutMillis;
+        }
+        // A timeout of 0 means no timeout to HttpURLConnection, so wait at least 1 ms.
+        long remaining = Math.max(remainingMillis(), 1);
+        if (timeoutMillis > 0) {
+            return (int) Math.min(timeoutMillis, remaining);
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+}
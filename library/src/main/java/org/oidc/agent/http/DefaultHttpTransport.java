@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import org.oidc.agent.util.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} backed by {@link HttpURLConnection}.
+ * <p>
+ * Connections are never disconnected after a successful exchange; the response stream is closed
+ * instead so that the platform keeps the connection alive and reuses it (including its TLS
+ * session) for the next call to the same host. Responses are requested gzip-compressed and
+ * decoded transparently.
+ */
+public class DefaultHttpTransport implements HttpTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(20);
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    public DefaultHttpTransport() {
+
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a transport with the given default timeouts. Requests may override them.
+     *
+     * @param connectTimeoutMillis Connect timeout in milliseconds.
+     * @param readTimeoutMillis    Read timeout in milliseconds.
+     */
+    public DefaultHttpTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public HttpCall newCall(HttpRequest request) {
+
+        return new Call(request);
+    }
+
+    private final class Call implements HttpCall {
+
+        private final HttpRequest mRequest;
+        private volatile HttpURLConnection mConnection;
+        private volatile boolean mCancelled;
+
+        Call(HttpRequest request) {
+
+            mRequest = request;
+        }
+
+        @Override
+        public HttpResponse execute() throws IOException {
+
+            checkCancelled();
+            HttpURLConnection conn = (HttpURLConnection) new URL(mRequest.getUrl())
+                    .openConnection();
+            mConnection = conn;
+            try {
+                checkCancelled();
+                // The timeouts are bounded by the time left until the deadline, if any.
+                int connectTimeout = mRequest.getConnectTimeoutMillis();
+                int readTimeout = mRequest.getReadTimeoutMillis();
+                Deadline deadline = mRequest.getDeadline();
+                conn.setConnectTimeout(deadline.bound(connectTimeout > 0 ?
+                        connectTimeout : mConnectTimeoutMillis));
+                conn.setReadTimeout(deadline.bound(readTimeout > 0 ?
+                        readTimeout : mReadTimeoutMillis));
+                conn.setInstanceFollowRedirects(mRequest.isFollowRedirects());
+                conn.setRequestMethod(mRequest.getMethod());
+                conn.setDoInput(true);
+                conn.setRequestProperty(Constants.ACCEPT_ENCODING, Constants.GZIP);
+                for (Map.Entry<String, String> header : mRequest.getHeaders().entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+                byte[] body = mRequest.getBody();
+                if (body != null) {
+                    conn.setDoOutput(true);
+                    conn.setFixedLengthStreamingMode(body.length);
+                    OutputStream out = conn.getOutputStream();
+                    try {
+                        out.write(body);
+                    } finally {
+                        out.close();
+                    }
+                }
+                int code = conn.getResponseCode();
+                return new HttpResponse(code, conn.getHeaderFields(), openBody(conn, code));
+            } catch (IOException e) {
+                conn.disconnect();
+                checkCancelled();
+                throw e;
+            }
+        }
+
+        @Override
+        public void cancel() {
+
+            mCancelled = true;
+            HttpURLConnection conn = mConnection;
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+
+            return mCancelled;
+        }
+
+        private void checkCancelled() throws IOException {
+
+            if (mCancelled) {
+                throw new InterruptedIOException("Request to " + mRequest.getUrl() + " was "
+                        + "cancelled");
+            }
+        }
+
+        private InputStream openBody(HttpURLConnection conn, int code) throws IOException {
+
+            if (code == HttpURLConnection.HTTP_NO_CONTENT
+                    || code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            InputStream stream = code >= HttpURLConnection.HTTP_BAD_REQUEST ?
+                    conn.getErrorStream() : conn.getInputStream();
+            if (stream != null && Constants.GZIP.equalsIgnoreCase(
+                    conn.getHeaderField(Constants.CONTENT_ENCODING))) {
+                stream = new GZIPInputStream(stream);
+            }
+            return stream;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import java.io.IOException;
+
+/**
+ * A single HTTP request/response exchange that can be cancelled from another thread.
+ */
+public interface HttpCall {
+
+    /**
+     * Executes the request and blocks until the response headers are received. The caller must
+     * close the returned response.
+     *
+     * @return HttpResponse.
+     * @throws IOException If the request could not be executed or was cancelled.
+     */
+    HttpResponse execute() throws IOException;
+
+    /**
+     * Cancels the call. A call that is in flight fails with an {@link IOException}.
+     */
+    void cancel();
+
+    /**
+     * Returns whether the call has been cancelled.
+     *
+     * @return true if {@link #cancel()} was called.
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import androidx.annotation.NonNull;
+
+import org.oidc.agent.util.Constants;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable HTTP request to an identity server endpoint.
+ */
+public final class HttpRequest {
+
+    private final String mUrl;
+    private final String mMethod;
+    private final Map<String, String> mHeaders;
+    private final byte[] mBody;
+    private final boolean mFollowRedirects;
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final Deadline mDeadline;
+
+    private HttpRequest(Builder builder) {
+
+        mUrl = builder.mUrl;
+        mMethod = builder.mMethod;
+        mHeaders = Collections.unmodifiableMap(new LinkedHashMap<>(builder.mHeaders));
+        mBody = builder.mBody;
+        mFollowRedirects = builder.mFollowRedirects;
+        mConnectTimeoutMillis = builder.mConnectTimeoutMillis;
+        mReadTimeoutMillis = builder.mReadTimeoutMillis;
+        mDeadline = builder.mDeadline;
+    }
+
+    public String getUrl() {
+
+        return mUrl;
+    }
+
+    public String getMethod() {
+
+        return mMethod;
+    }
+
+    public Map<String, String> getHeaders() {
+
+        return mHeaders;
+    }
+
+    /**
+     * Returns the request body, or null for requests without a body.
+     *
+     * @return Request body.
+     */
+    public byte[] getBody() {
+
+        return mBody;
+    }
+
+    public boolean isFollowRedirects() {
+
+        return mFollowRedirects;
+    }
+
+    /**
+     * Returns the connect timeout set for this request, or 0 to use the transport default. The
+     * value is not bounded by the {@link #getDeadline() deadline}; transports bound the timeout
+     * they actually use, request value or default, by the time left.
+     *
+     * @return Connect timeout in milliseconds.
+     */
+    public int getConnectTimeoutMillis() {
+
+        return mConnectTimeoutMillis;
+    }
+
+    /**
+     * Returns the read timeout set for this request, or 0 to use the transport default. Like the
+     * connect timeout, it is not bounded by the {@link #getDeadline() deadline}.
+     *
+     * @return Read timeout in milliseconds.
+     */
+    public int getReadTimeoutMillis() {
+
+        return mReadTimeoutMillis;
+    }
+
+    /**
+     * Returns the deadline of the operation this request is made for. Transports bound their
+     * connect and read timeouts with {@link Deadline#bound(int)} right before connecting.
+     *
+     * @return Deadline, {@link Deadline#NONE} if there is none.
+     */
+    @NonNull
+    public Deadline getDeadline() {
+
+        return mDeadline;
+    }
+
+    /**
+     * Builds {@link HttpRequest} instances.
+     */
+    public static final class Builder {
+
+        private final String mUrl;
+        private String mMethod = Constants.HTTP_GET;
+        private final Map<String, String> mHeaders = new LinkedHashMap<>();
+        private byte[] mBody;
+        private boolean mFollowRedirects = true;
+        private int mConnectTimeoutMillis;
+        private int mReadTimeoutMillis;
+        private Deadline mDeadline = Deadline.NONE;
+
+        public Builder(@NonNull String url) {
+
+            mUrl = url;
+        }
+
+        public Builder setHeader(@NonNull String name, @NonNull String value) {
+
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        /**
+         * Makes this a POST request with the given body.
+         *
+         * @param contentType Content type of the body.
+         * @param body        Request body.
+         * @return Builder.
+         */
+        public Builder post(@NonNull String contentType, @NonNull byte[] body) {
+
+            mMethod = Constants.HTTP_POST;
+            mHeaders.put(Constants.CONTENT_TYPE, contentType);
+            mBody = body;
+            return this;
+        }
+
+        public Builder setFollowRedirects(boolean followRedirects) {
+
+            mFollowRedirects = followRedirects;
+            return this;
+        }
+
+        public Builder setConnectTimeoutMillis(int connectTimeoutMillis) {
+
+            mConnectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        public Builder setReadTimeoutMillis(int readTimeoutMillis) {
+
+            mReadTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets the deadline of the operation the request is made for. The connect and read
+         * timeouts are bounded by the time left until it.
+         *
+         * @param deadline Deadline.
+         * @return Builder.
+         */
+        public Builder setDeadline(@NonNull Deadline deadline) {
+
+            mDeadline = deadline;
+            return this;
+        }
+
+        public HttpRequest build() {
+
+            return new HttpRequest(this);
+        }
+    }
+}
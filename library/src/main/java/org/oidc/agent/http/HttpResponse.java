@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import androidx.annotation.Nullable;
+
+import okio.Okio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Response of an {@link HttpCall}. The body must be consumed or the response closed so that the
+ * underlying connection can be returned to the pool.
+ */
+public final class HttpResponse implements Closeable {
+
+    private final int mCode;
+    private final Map<String, List<String>> mHeaders;
+    private final InputStream mBody;
+
+    /**
+     * Creates a response.
+     *
+     * @param code    HTTP status code.
+     * @param headers Response headers, looked up case-insensitively.
+     * @param body    Decoded response body, may be null for responses without a body.
+     */
+    public HttpResponse(int code, Map<String, List<String>> headers, @Nullable InputStream body) {
+
+        mCode = code;
+        Map<String, List<String>> caseInsensitive = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            // HttpURLConnection reports the status line under a null key.
+            if (header.getKey() != null) {
+                caseInsensitive.put(header.getKey(), header.getValue());
+            }
+        }
+        mHeaders = Collections.unmodifiableMap(caseInsensitive);
+        mBody = body;
+    }
+
+    public int getCode() {
+
+        return mCode;
+    }
+
+    /**
+     * Returns the last value of the given header.
+     *
+     * @param name Header name.
+     * @return Header value or null if the header is absent.
+     */
+    @Nullable
+    public String getHeader(String name) {
+
+        List<String> values = mHeaders.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    /**
+     * Returns the given header parsed as an HTTP date.
+     *
+     * @param name Header name.
+     * @return Milliseconds since epoch, or 0 if the header is absent or malformed.
+     */
+    public long getHeaderDate(String name) {
+
+        String value = getHeader(name);
+        if (value == null) {
+            return 0;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the decoded response body stream.
+     *
+     * @return Body stream, or null for responses without a body.
+     */
+    @Nullable
+    public InputStream getBody() {
+
+        return mBody;
+    }
+
+    /**
+     * Reads the whole body as a UTF-8 string and closes the response.
+     *
+     * @return Response body, empty if the response has no body.
+     * @throws IOException If the body could not be read.
+     */
+    public String readBodyString() throws IOException {
+
+        if (mBody == null) {
+            return "";
+        }
+        try {
+            return Okio.buffer(Okio.source(mBody)).readString(Charset.forName("UTF-8"));
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+
+        if (mBody != null) {
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                // Nothing to recover, the connection is simply not reused.
+            }
+        }
+    }
+}
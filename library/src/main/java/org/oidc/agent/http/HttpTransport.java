@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+/**
+ * Transport used by the SDK for all calls to the identity server endpoints. The default
+ * implementation is {@link DefaultHttpTransport}; applications can plug in their own HTTP stack
+ * through {@link org.oidc.agent.sso.LoginService#setHttpTransport(HttpTransport)}.
+ */
+public interface HttpTransport {
+
+    /**
+     * Prepares a call for the given request. The call is not executed until
+     * {@link HttpCall#execute()} is invoked.
+     *
+     * @param request HttpRequest.
+     * @return HttpCall.
+     */
+    HttpCall newCall(HttpRequest request);
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import android.util.Log;
+
+import org.oidc.agent.util.Clock;
+import org.oidc.agent.util.Constants;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a transport with retries, a circuit breaker per endpoint and a short-lived cache of
+ * failures, as configured by a {@link RetryPolicy}.
+ * <p>
+ * Calls that fail with an I/O error, 429 Too Many Requests or a 5xx status are retried with a
+ * jittered exponential backoff. POST requests, such as the exchange of an authorization code,
+ * are only retried when they never reached the server, or when the server answered 429, since
+ * a code or refresh token may already be used up by the first attempt. No retry is made when
+ * the backoff would outlast the {@link Deadline} of the request. After repeated failures
+ * an endpoint is not called for a while, and right after a failure other calls to the same
+ * endpoint fail with it without going to the network.
+ */
+public final class ResilientTransport implements HttpTransport {
+
+    private static final String LOG_TAG = "ResilientTransport";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final HttpTransport mDelegate;
+    private final RetryPolicy mPolicy;
+    private final Clock mClock;
+    private final ConcurrentMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<>();
+
+    public ResilientTransport(HttpTransport delegate, RetryPolicy policy) {
+
+        this(delegate, policy, Clock.SYSTEM);
+    }
+
+    /**
+     * Creates a transport whose circuit breakers, failure cache and backoff follow the given
+     * clock.
+     *
+     * @param delegate Transport that makes the calls.
+     * @param policy   Retry policy.
+     * @param clock    Clock.
+     */
+    ResilientTransport(HttpTransport delegate, RetryPolicy policy, Clock clock) {
+
+        mDelegate = delegate;
+        mPolicy = policy;
+        mClock = clock;
+    }
+
+    @Override
+    public HttpCall newCall(HttpRequest request) {
+
+        return new Call(request, getEndpoint(request.getUrl()));
+    }
+
+    private Endpoint getEndpoint(String url) {
+
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        String key = url.substring(0, end);
+        Endpoint endpoint = mEndpoints.get(key);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint(key);
+            endpoint = mEndpoints.putIfAbsent(key, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * Returns whether the request of a failed call was never sent to the server.
+     */
+    private static boolean isNotSent(IOException e) {
+
+        return e instanceof ConnectException || e instanceof UnknownHostException
+                || e instanceof NoRouteToHostException;
+    }
+
+    private static boolean isServerFailure(int code) {
+
+        return code == HTTP_TOO_MANY_REQUESTS || code >= 500;
+    }
+
+    /**
+     * Returns the delay the server asked for with a Retry-After header given in seconds.
+     *
+     * @return Delay in milliseconds, or 0 if there is none.
+     */
+    private static long getRetryAfterMillis(HttpResponse response) {
+
+        String retryAfter = response.getHeader(Constants.RETRY_AFTER);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(retryAfter.trim()), 0));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Health of one endpoint: its consecutive failures, circuit breaker and last failure.
+     */
+    private final class Endpoint {
+
+        private final String mUrl;
+        private int mConsecutiveFailures;
+        private long mOpenUntil;
+        private boolean mTrialInFlight;
+        private IOException mLastFailure;
+        private long mLastFailureAt;
+
+        Endpoint(String url) {
+
+            mUrl = url;
+        }
+
+        /**
+         * Admits a call to the endpoint. While the circuit is open, or right after a failure,
+         * the call fails without going to the network. Once the open time has passed, a single
+         * call is let through as a trial.
+         *
+         * @throws IOException If the endpoint is not called right now.
+         */
+        synchronized void admit() throws IOException {
+
+            long now = mClock.elapsedRealtime();
+            if (mLastFailure != null && now - mLastFailureAt < mPolicy.getFailureCacheMillis()) {
+                throw new IOException("Call to " + mUrl + " failed moments ago", mLastFailure);
+            }
+            if (mOpenUntil > 0) {
+                if (now < mOpenUntil || mTrialInFlight) {
+                    throw new IOException("Calls to " + mUrl + " are suspended after repeated "
+                            + "failures", mLastFailure);
+                }
+                mTrialInFlight = true;
+            }
+        }
+
+        synchronized void onSuccess() {
+
+            mConsecutiveFailures = 0;
+            mOpenUntil = 0;
+            mTrialInFlight = false;
+            mLastFailure = null;
+        }
+
+        synchronized void onFailure(IOException error) {
+
+            long now = mClock.elapsedRealtime();
+            mLastFailure = error;
+            mLastFailureAt = now;
+            mTrialInFlight = false;
+            mConsecutiveFailures++;
+            if (mPolicy.getFailureThreshold() > 0
+                    && mConsecutiveFailures >= mPolicy.getFailureThreshold()) {
+                if (mOpenUntil == 0) {
+                    Log.w(LOG_TAG, "Suspending calls to " + mUrl + " after "
+                            + mConsecutiveFailures + " failures");
+                }
+                mOpenUntil = now + mPolicy.getOpenMillis();
+            }
+        }
+
+        /**
+         * Called when a call was cancelled, which says nothing about the endpoint.
+         */
+        synchronized void onAbandoned() {
+
+            mTrialInFlight = false;
+        }
+    }
+
+    private final class Call implements HttpCall {
+
+        private final HttpRequest mRequest;
+        private final Endpoint mEndpoint;
+        private final Object mLock = new Object();
+        private volatile HttpCall mCurrent;
+        private volatile boolean mCancelled;
+
+        Call(HttpRequest request, Endpoint endpoint) {
+
+            mRequest = request;
+            mEndpoint = endpoint;
+        }
+
+        @Override
+        public HttpResponse execute() throws IOException {
+
+            checkCancelled();
+            Deadline deadline = mRequest.getDeadline();
+            if (deadline.isExpired()) {
+                throw new SocketTimeoutException("Deadline passed before calling "
+                        + mEndpoint.mUrl);
+            }
+            mEndpoint.admit();
+            boolean finished = false;
+            try {
+                HttpResponse response = executeAdmitted(deadline);
+                finished = true;
+                return response;
+            } catch (IOException e) {
+                finished = true;
+                throw e;
+            } finally {
+                if (!finished) {
+                    // The delegate failed unexpectedly, which must not leave a trial in flight.
+                    mEndpoint.onAbandoned();
+                }
+            }
+        }
+
+        /**
+         * Makes the attempts of a call the endpoint admitted, and reports their outcome to it.
+         */
+        private HttpResponse executeAdmitted(Deadline deadline) throws IOException {
+
+            boolean idempotent = !Constants.HTTP_POST.equals(mRequest.getMethod());
+            for (int attempt = 1; ; attempt++) {
+                boolean lastAttempt = attempt >= mPolicy.getMaxAttempts();
+                HttpCall call = mDelegate.newCall(mRequest);
+                mCurrent = call;
+                if (mCancelled) {
+                    call.cancel();
+                }
+                HttpResponse response;
+                try {
+                    response = call.execute();
+                } catch (IOException e) {
+                    if (mCancelled) {
+                        mEndpoint.onAbandoned();
+                        throw e;
+                    }
+                    if (lastAttempt || !(idempotent || isNotSent(e))) {
+                        mEndpoint.onFailure(e);
+                        throw e;
+                    }
+                    long backoff = mPolicy.backoffMillis(attempt);
+                    if (backoff >= deadline.remainingMillis()) {
+                        // No time is left for another attempt.
+                        mEndpoint.onFailure(e);
+                        throw e;
+                    }
+                    Log.w(LOG_TAG, "Retrying call to " + mEndpoint.mUrl + " after: " + e);
+                    pause(backoff);
+                    continue;
+                }
+                int code = response.getCode();
+                if (!isServerFailure(code)) {
+                    mEndpoint.onSuccess();
+                    return response;
+                }
+                long backoff = Math.max(mPolicy.backoffMillis(attempt),
+                        getRetryAfterMillis(response));
+                if (lastAttempt || !(idempotent || code == HTTP_TOO_MANY_REQUESTS)
+                        || backoff > mPolicy.getMaxBackoffMillis()
+                        || backoff >= deadline.remainingMillis()) {
+                    mEndpoint.onFailure(new IOException("Server returned " + code));
+                    return response;
+                }
+                response.close();
+                Log.w(LOG_TAG, "Retrying call to " + mEndpoint.mUrl + " after status " + code);
+                pause(backoff);
+            }
+        }
+
+        @Override
+        public void cancel() {
+
+            mCancelled = true;
+            HttpCall current = mCurrent;
+            if (current != null) {
+                current.cancel();
+            }
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+
+            return mCancelled;
+        }
+
+        /**
+         * Waits before the next attempt. Cancelling the call ends the wait.
+         */
+        private void pause(long millis) throws IOException {
+
+            long until = mClock.elapsedRealtime() + millis;
+            synchronized (mLock) {
+                long left;
+                while (!mCancelled && (left = until - mClock.elapsedRealtime()) > 0) {
+                    try {
+                        mLock.wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        mEndpoint.onAbandoned();
+                        throw new InterruptedIOException("Interrupted while waiting to retry");
+                    }
+                }
+            }
+            if (mCancelled) {
+                mEndpoint.onAbandoned();
+                checkCancelled();
+            }
+        }
+
+        private void checkCancelled() throws IOException {
+
+            if (mCancelled) {
+                throw new InterruptedIOException("Request to " + mRequest.getUrl() + " was "
+                        + "cancelled");
+            }
+        }
+    }
+}
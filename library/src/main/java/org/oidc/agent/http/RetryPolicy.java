@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for {@link ResilientTransport}: how often failed calls to the identity server are
+ * retried, and when an endpoint that keeps failing is given a rest.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Policy used by the SDK unless another one is set.
+     */
+    public static final RetryPolicy DEFAULT = new Builder().build();
+
+    private static final Random sJitter = new Random();
+
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMillis;
+    private final long mMaxBackoffMillis;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final long mFailureCacheMillis;
+
+    private RetryPolicy(Builder builder) {
+
+        mMaxAttempts = builder.mMaxAttempts;
+        mInitialBackoffMillis = builder.mInitialBackoffMillis;
+        mMaxBackoffMillis = builder.mMaxBackoffMillis;
+        mFailureThreshold = builder.mFailureThreshold;
+        mOpenMillis = builder.mOpenMillis;
+        mFailureCacheMillis = builder.mFailureCacheMillis;
+    }
+
+    public int getMaxAttempts() {
+
+        return mMaxAttempts;
+    }
+
+    public int getFailureThreshold() {
+
+        return mFailureThreshold;
+    }
+
+    public long getOpenMillis() {
+
+        return mOpenMillis;
+    }
+
+    public long getFailureCacheMillis() {
+
+        return mFailureCacheMillis;
+    }
+
+    /**
+     * Returns the time to wait before a retry. The delay grows exponentially up to the maximum
+     * backoff and is drawn at random below that bound ("full jitter"), so that clients which
+     * failed together do not retry together.
+     *
+     * @param retry Number of the retry, starting at 1.
+     * @return Delay in milliseconds.
+     */
+    long backoffMillis(int retry) {
+
+        long bound = mInitialBackoffMillis << Math.min(retry - 1, 30);
+        if (bound <= 0 || bound > mMaxBackoffMillis) {
+            bound = mMaxBackoffMillis;
+        }
+        synchronized (sJitter) {
+            return (long) (sJitter.nextDouble() * bound);
+        }
+    }
+
+    /**
+     * Returns the longest time to wait before a retry.
+     *
+     * @return Maximum backoff in milliseconds.
+     */
+    long getMaxBackoffMillis() {
+
+        return mMaxBackoffMillis;
+    }
+
+    /**
+     * Builds {@link RetryPolicy} instances.
+     */
+    public static final class Builder {
+
+        private int mMaxAttempts = 3;
+        private long mInitialBackoffMillis = 500;
+        private long mMaxBackoffMillis = TimeUnit.SECONDS.toMillis(8);
+        private int mFailureThreshold = 5;
+        private long mOpenMillis = TimeUnit.SECONDS.toMillis(30);
+        private long mFailureCacheMillis = TimeUnit.SECONDS.toMillis(5);
+
+        /**
+         * Sets how many times a call is made at most, including the first attempt. Defaults to
+         * 3, 1 disables retries.
+         *
+         * @param maxAttempts Maximum number of attempts.
+         * @return Builder.
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+
+            mMaxAttempts = Math.max(maxAttempts, 1);
+            return this;
+        }
+
+        /**
+         * Sets the bounds of the exponential backoff between attempts. Defaults to 500 ms,
+         * doubling up to 8 seconds.
+         *
+         * @param initial Backoff bound before the first retry.
+         * @param max     Largest backoff bound.
+         * @param unit    Unit of both durations.
+         * @return Builder.
+         */
+        public Builder setBackoff(long initial, long max, TimeUnit unit) {
+
+            mInitialBackoffMillis = Math.max(unit.toMillis(initial), 1);
+            mMaxBackoffMillis = Math.max(unit.toMillis(max), mInitialBackoffMillis);
+            return this;
+        }
+
+        /**
+         * Sets after how many failed calls in a row an endpoint is not called anymore, and for
+         * how long. Afterwards a single trial call decides whether the endpoint is used again.
+         * Defaults to 5 failures and 30 seconds.
+         *
+         * @param failureThreshold Number of consecutive failed calls, 0 to disable.
+         * @param openTime         Time during which calls fail right away.
+         * @param unit             Unit of the time.
+         * @return Builder.
+         */
+        public Builder setCircuitBreaker(int failureThreshold, long openTime, TimeUnit unit) {
+
+            mFailureThreshold = Math.max(failureThreshold, 0);
+            mOpenMillis = unit.toMillis(openTime);
+            return this;
+        }
+
+        /**
+         * Sets for how long the failure of a call is returned right away to other calls to the
+         * same endpoint. Defaults to 5 seconds, 0 disables it.
+         *
+         * @param time Time the failure is cached.
+         * @param unit Unit of the time.
+         * @return Builder.
+         */
+        public Builder setFailureCacheTime(long time, TimeUnit unit) {
+
+            mFailureCacheMillis = Math.max(unit.toMillis(time), 0);
+            return this;
+        }
+
+        public RetryPolicy build() {
+
+            return new RetryPolicy(this);
+        }
+    }
+}
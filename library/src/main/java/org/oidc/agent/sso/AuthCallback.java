@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+/**
+ * Receives the outcome of an {@link AuthFuture}.
+ *
+ * @param <T> Result type.
+ */
+public interface AuthCallback<T> {
+
+    /**
+     * Called when the operation completed successfully.
+     *
+     * @param result Result.
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when the operation failed, timed out or was cancelled.
+     *
+     * @param error Cause of the failure. A {@link java.util.concurrent.TimeoutException} when the
+     *              deadline passed, a {@link java.util.concurrent.CancellationException} when the
+     *              operation was cancelled.
+     */
+    void onFailure(Throwable error);
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import androidx.annotation.NonNull;
+
+import org.oidc.agent.http.Deadline;
+import org.oidc.agent.http.HttpCall;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous SDK operation. Callers can block on it, register callbacks, chain a
+ * follow-up operation or cancel it; cancelling aborts the HTTP request that is in flight.
+ *
+ * @param <T> Result type.
+ */
+public class AuthFuture<T> implements Future<T> {
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+
+            command.run();
+        }
+    };
+
+    private int mState = PENDING;
+    private T mValue;
+    private Throwable mError;
+    private Runnable mCancelAction;
+    private List<Runnable> mListeners = new ArrayList<>();
+
+    AuthFuture() {
+
+    }
+
+    /**
+     * Returns a future that has already completed with the given value.
+     *
+     * @param value Result.
+     * @param <T>   Result type.
+     * @return Completed future.
+     */
+    public static <T> AuthFuture<T> completed(T value) {
+
+        AuthFuture<T> future = new AuthFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    /**
+     * Returns a future that has already failed with the given error.
+     *
+     * @param error Cause of the failure.
+     * @param <T>   Result type.
+     * @return Failed future.
+     */
+    public static <T> AuthFuture<T> failed(Throwable error) {
+
+        AuthFuture<T> future = new AuthFuture<>();
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * Registers a callback that runs on the thread that completes the future, or right away on
+     * the calling thread if it is already done.
+     *
+     * @param callback Callback.
+     * @return This future.
+     */
+    public AuthFuture<T> addCallback(@NonNull AuthCallback<? super T> callback) {
+
+        return addCallback(callback, DIRECT);
+    }
+
+    /**
+     * Registers a callback that runs on the given executor once the future is done.
+     *
+     * @param callback Callback.
+     * @param executor Executor the callback is run on.
+     * @return This future.
+     */
+    public AuthFuture<T> addCallback(@NonNull final AuthCallback<? super T> callback,
+            @NonNull final Executor executor) {
+
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+
+                        deliver(callback);
+                    }
+                });
+            }
+        };
+        synchronized (this) {
+            if (mState == PENDING) {
+                mListeners.add(listener);
+                return this;
+            }
+        }
+        listener.run();
+        return this;
+    }
+
+    /**
+     * Chains an operation that starts when this future succeeds. Failures of this future are
+     * passed on to the returned future, and cancelling the returned future cancels whichever of
+     * the two operations is running.
+     *
+     * @param continuation Operation started with the result of this future.
+     * @param <R>          Result type of the follow-up operation.
+     * @return Future of the follow-up operation.
+     */
+    public <R> AuthFuture<R> then(@NonNull final Continuation<? super T, R> continuation) {
+
+        final AuthFuture<R> next = new AuthFuture<>();
+        next.setCancelAction(new Runnable() {
+            @Override
+            public void run() {
+
+                cancel(true);
+            }
+        });
+        addCallback(new AuthCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+
+                final AuthFuture<R> inner;
+                try {
+                    inner = continuation.then(result);
+                } catch (Exception e) {
+                    next.fail(e);
+                    return;
+                }
+                next.setCancelAction(new Runnable() {
+                    @Override
+                    public void run() {
+
+                        inner.cancel(true);
+                    }
+                });
+                inner.addCallback(new AuthCallback<R>() {
+                    @Override
+                    public void onSuccess(R value) {
+
+                        next.complete(value);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+
+                        next.fail(error);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                next.fail(error);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Returns a future that completes with the outcome of this one. Cancelling it only detaches
+     * that caller, so this future can be shared by many callers.
+     *
+     * @return Future following this one.
+     */
+    AuthFuture<T> newWaiter() {
+
+        final AuthFuture<T> waiter = new AuthFuture<>();
+        addCallback(new AuthCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+
+                waiter.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                waiter.fail(error);
+            }
+        });
+        return waiter;
+    }
+
+    /**
+     * Cancels the operation and aborts its in-flight HTTP request. Callbacks receive a
+     * {@link CancellationException}.
+     *
+     * @param mayInterruptIfRunning Ignored, the request is always aborted.
+     * @return false if the future was already done.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+
+        return finish(CANCELLED, null, new CancellationException("Operation was cancelled"),
+                true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+
+        return mState == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+
+        return mState != PENDING;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+
+        while (mState == PENDING) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mState == PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Operation did not complete in time");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    /**
+     * Completes the future with the given value.
+     *
+     * @param value Result.
+     * @return false if the future was already done.
+     */
+    boolean complete(T value) {
+
+        return finish(SUCCEEDED, value, null, false);
+    }
+
+    /**
+     * Completes the future with the given error.
+     *
+     * @param error Cause of the failure.
+     * @return false if the future was already done.
+     */
+    boolean fail(Throwable error) {
+
+        return finish(FAILED, null, error, false);
+    }
+
+    /**
+     * Sets the action that aborts the running operation when the future is cancelled or its
+     * deadline passes. Runs the action right away if that already happened.
+     *
+     * @param cancelAction Action aborting the operation.
+     */
+    void setCancelAction(Runnable cancelAction) {
+
+        synchronized (this) {
+            if (mState == PENDING) {
+                mCancelAction = cancelAction;
+                return;
+            }
+            if (mState == SUCCEEDED) {
+                return;
+            }
+        }
+        cancelAction.run();
+    }
+
+    /**
+     * Binds the HTTP call that is currently executed for this future, so that it is aborted on
+     * cancellation.
+     *
+     * @param call HttpCall.
+     */
+    void setInFlightCall(final HttpCall call) {
+
+        setCancelAction(new Runnable() {
+            @Override
+            public void run() {
+
+                call.cancel();
+            }
+        });
+    }
+
+    /**
+     * Fails the future with a {@link TimeoutException} and aborts the operation if it is not
+     * done within the given time.
+     *
+     * @param timeout   Timeout, 0 or less for no deadline.
+     * @param unit      Unit of the timeout.
+     * @param scheduler Scheduler timing the deadline.
+     * @return This future.
+     */
+    AuthFuture<T> withDeadline(long timeout, TimeUnit unit, SdkScheduler scheduler) {
+
+        if (timeout <= 0 || isDone()) {
+            return this;
+        }
+        final ScheduledFuture<?> timer = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+
+                finish(FAILED, null, new TimeoutException("Operation did not complete in time"),
+                        true);
+            }
+        }, timeout, unit);
+        addCallback(new AuthCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+
+                timer.cancel(false);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                timer.cancel(false);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Fails the future with a {@link TimeoutException} and aborts the operation if it is not
+     * done by the given deadline. A deadline that has already passed fails the future right
+     * away.
+     *
+     * @param deadline  Deadline.
+     * @param scheduler Scheduler timing the deadline.
+     * @return This future.
+     */
+    AuthFuture<T> withDeadline(Deadline deadline, SdkScheduler scheduler) {
+
+        if (!deadline.isBounded()) {
+            return this;
+        }
+        long remaining = deadline.remainingMillis();
+        if (remaining == 0) {
+            finish(FAILED, null, new TimeoutException("Operation did not complete in time"),
+                    true);
+            return this;
+        }
+        return withDeadline(remaining, TimeUnit.MILLISECONDS, scheduler);
+    }
+
+    private boolean finish(int state, T value, Throwable error, boolean abort) {
+
+        List<Runnable> listeners;
+        Runnable cancelAction;
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mState = state;
+            mValue = value;
+            mError = error;
+            listeners = mListeners;
+            cancelAction = mCancelAction;
+            mListeners = null;
+            mCancelAction = null;
+            notifyAll();
+        }
+        if (abort && cancelAction != null) {
+            cancelAction.run();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    private void deliver(AuthCallback<? super T> callback) {
+
+        int state;
+        T value;
+        Throwable error;
+        synchronized (this) {
+            state = mState;
+            value = mValue;
+            error = mError;
+        }
+        if (state == SUCCEEDED) {
+            callback.onSuccess(value);
+        } else {
+            callback.onFailure(error);
+        }
+    }
+
+    private T getResult() throws ExecutionException {
+
+        if (mState == SUCCEEDED) {
+            return mValue;
+        }
+        if (mState == CANCELLED) {
+            throw (CancellationException) mError;
+        }
+        throw new ExecutionException(mError);
+    }
+
+    /**
+     * Operation chained with {@link #then(Continuation)}.
+     *
+     * @param <T> Result type of the previous operation.
+     * @param <R> Result type of this operation.
+     */
+    public interface Continuation<T, R> {
+
+        /**
+         * Starts the follow-up operation.
+         *
+         * @param result Result of the previous operation.
+         * @return Future of the follow-up operation.
+         * @throws Exception If the operation could not be started.
+         */
+        AuthFuture<R> then(T result) throws Exception;
+    }
+}
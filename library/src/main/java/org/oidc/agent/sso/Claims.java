@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable, compact set of claims. Claim names are interned and kept sorted next to their
+ * values in two arrays, so a lookup is a binary search and reading a claim does not allocate.
+ *
+ * <p>Values are stored as String, Boolean, Long, Double, nested Claims, or an unmodifiable
+ * List of such values. JSON null values are dropped.</p>
+ */
+public final class Claims {
+
+    private static final Claims EMPTY = new Claims(new String[0], new Object[0]);
+
+    private final String[] mNames;
+    private final Object[] mValues;
+
+    private Claims(String[] names, Object[] values) {
+
+        mNames = names;
+        mValues = values;
+    }
+
+    /**
+     * Reads a JSON object from a stream.
+     *
+     * @param reader JsonReader positioned before an object.
+     * @return Claims.
+     * @throws IOException           If the stream could not be read.
+     * @throws IllegalStateException If the next value is not an object.
+     */
+    static Claims read(JsonReader reader) throws IOException {
+
+        Builder builder = new Builder();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            builder.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return builder.build();
+    }
+
+    /**
+     * Copies a JSON object.
+     *
+     * @param json JSON object.
+     * @return Claims.
+     */
+    static Claims fromJson(JSONObject json) {
+
+        Builder builder = new Builder();
+        Iterator<?> names = json.keys();
+        while (names.hasNext()) {
+            String name = (String) names.next();
+            builder.put(name, fromJsonValue(json.opt(name)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns whether the claim is present.
+     *
+     * @param name Claim name.
+     * @return true if the claim is present.
+     */
+    public boolean has(String name) {
+
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Returns the raw claim value.
+     *
+     * @param name Claim name.
+     * @return String, Boolean, Long, Double, Claims or List, or null if the claim is absent.
+     */
+    @Nullable
+    public Object get(String name) {
+
+        int index = indexOf(name);
+        return index >= 0 ? mValues[index] : null;
+    }
+
+    /**
+     * Returns a string claim.
+     *
+     * @param name Claim name.
+     * @return Value, or null if the claim is absent or not a string.
+     */
+    @Nullable
+    public String getString(String name) {
+
+        Object value = get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Returns a boolean claim. The strings "true" and "false" are accepted as well, since some
+     * servers send claims such as email_verified as strings.
+     *
+     * @param name         Claim name.
+     * @param defaultValue Value returned if the claim is absent or not a boolean.
+     * @return Value.
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+
+        Object value = get(name);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof String) {
+            if ("true".equalsIgnoreCase((String) value)) {
+                return true;
+            }
+            if ("false".equalsIgnoreCase((String) value)) {
+                return false;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns a numeric claim as a long. Numeric strings are accepted as well.
+     *
+     * @param name         Claim name.
+     * @param defaultValue Value returned if the claim is absent or not a number.
+     * @return Value.
+     */
+    public long getLong(String name, long defaultValue) {
+
+        Object value = get(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns a numeric claim as a double.
+     *
+     * @param name         Claim name.
+     * @param defaultValue Value returned if the claim is absent or not a number.
+     * @return Value.
+     */
+    public double getDouble(String name, double defaultValue) {
+
+        Object value = get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    /**
+     * Returns a claim holding an array of strings, such as groups or roles.
+     *
+     * @param name Claim name.
+     * @return Unmodifiable list, or null if the claim is absent or not an array of strings.
+     */
+    @Nullable
+    public List<String> getStringList(String name) {
+
+        Object value = get(name);
+        return value instanceof StringArray ? (StringArray) value : null;
+    }
+
+    /**
+     * Returns a claim holding an array.
+     *
+     * @param name Claim name.
+     * @return Unmodifiable list, or null if the claim is absent or not an array.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public List<Object> getList(String name) {
+
+        Object value = get(name);
+        return value instanceof List ? (List<Object>) value : null;
+    }
+
+    /**
+     * Returns a claim holding a JSON object, such as address.
+     *
+     * @param name Claim name.
+     * @return Nested claims, or null if the claim is absent or not an object.
+     */
+    @Nullable
+    public Claims getClaims(String name) {
+
+        Object value = get(name);
+        return value instanceof Claims ? (Claims) value : null;
+    }
+
+    /**
+     * Returns the claim names in sorted order.
+     *
+     * @return Unmodifiable list of claim names.
+     */
+    @NonNull
+    public List<String> names() {
+
+        return new StringArray(mNames);
+    }
+
+    /**
+     * Returns the number of claims.
+     *
+     * @return Number of claims.
+     */
+    public int size() {
+
+        return mNames.length;
+    }
+
+    /**
+     * Builds a JSON object holding the claims. A new object is built on each call.
+     *
+     * @return JSON object.
+     */
+    @NonNull
+    public JSONObject toJson() {
+
+        JSONObject json = new JSONObject();
+        try {
+            for (int i = 0; i < mNames.length; i++) {
+                json.put(mNames[i], toJsonValue(mValues[i]));
+            }
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which JSON cannot contain.
+            throw new IllegalStateException(e);
+        }
+        return json;
+    }
+
+    @Override
+    public String toString() {
+
+        return toJson().toString();
+    }
+
+    private int indexOf(String name) {
+
+        return name == null ? -1 : Arrays.binarySearch(mNames, name);
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException {
+
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return read(reader);
+            case BEGIN_ARRAY:
+                List<Object> values = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Object value = readValue(reader);
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+                reader.endArray();
+                return toArray(values);
+            case BOOLEAN:
+                return reader.nextBoolean() ? Boolean.TRUE : Boolean.FALSE;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.valueOf(number);
+                } catch (NumberFormatException e) {
+                    return Double.valueOf(number);
+                }
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static Object fromJsonValue(Object value) {
+
+        if (value == null || value == JSONObject.NULL) {
+            return null;
+        }
+        if (value instanceof JSONObject) {
+            return fromJson((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> values = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                Object element = fromJsonValue(array.opt(i));
+                if (element != null) {
+                    values.add(element);
+                }
+            }
+            return toArray(values);
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+        return value;
+    }
+
+    private static Object toJsonValue(Object value) {
+
+        if (value instanceof Claims) {
+            return ((Claims) value).toJson();
+        }
+        if (value instanceof List) {
+            JSONArray array = new JSONArray();
+            for (Object element : (List<?>) value) {
+                array.put(toJsonValue(element));
+            }
+            return array;
+        }
+        return value;
+    }
+
+    private static List<?> toArray(List<Object> values) {
+
+        for (Object value : values) {
+            if (!(value instanceof String)) {
+                return new ValueArray(values.toArray());
+            }
+        }
+        return new StringArray(values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * Collects claims and sorts them by name.
+     */
+    private static final class Builder {
+
+        private final List<String> mNames = new ArrayList<>();
+        private final List<Object> mValues = new ArrayList<>();
+
+        void put(String name, Object value) {
+
+            if (value == null) {
+                return;
+            }
+            int index = mNames.indexOf(name);
+            if (index >= 0) {
+                mValues.set(index, value);
+            } else {
+                mNames.add(name.intern());
+                mValues.add(value);
+            }
+        }
+
+        Claims build() {
+
+            int size = mNames.size();
+            if (size == 0) {
+                return EMPTY;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> mNames.get(a).compareTo(mNames.get(b)));
+            String[] names = new String[size];
+            Object[] values = new Object[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = mNames.get(order[i]);
+                values[i] = mValues.get(order[i]);
+            }
+            return new Claims(names, values);
+        }
+    }
+
+    /**
+     * Unmodifiable list view of an array of strings.
+     */
+    private static final class StringArray extends AbstractList<String> {
+
+        private final String[] mElements;
+
+        StringArray(String[] elements) {
+
+            mElements = elements;
+        }
+
+        @Override
+        public String get(int index) {
+
+            return mElements[index];
+        }
+
+        @Override
+        public int size() {
+
+            return mElements.length;
+        }
+    }
+
+    /**
+     * Unmodifiable list view of an array of claim values.
+     */
+    private static final class ValueArray extends AbstractList<Object> {
+
+        private final Object[] mElements;
+
+        ValueArray(Object[] elements) {
+
+            mElements = elements;
+        }
+
+        @Override
+        public Object get(int index) {
+
+            return mElements[index];
+        }
+
+        @Override
+        public int size() {
+
+            return mElements.length;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.JsonReader;
+import android.util.Log;
+
+import org.json.JSONObject;
+import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.util.ConfigManager;
+import org.oidc.agent.util.Constants;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the discovery response in memory and in shared preferences, together with the HTTP
+ * caching metadata (expiry and ETag) it was served with.
+ */
+class DiscoveryCache {
+
+    private static final String LOG_TAG = "DiscoveryCache";
+    private static final String KEY_URI = "uri";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_EXPIRES_AT = "expiresAt";
+
+    /**
+     * Freshness lifetime used when the server sends neither Cache-Control nor Expires.
+     */
+    static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private final SharedPreferences mPrefs;
+    private final ConfigManager mConfigManager;
+    private final String mDiscoveryUri;
+    private volatile Entry mEntry;
+    private volatile boolean mLoadedFromDisk;
+
+    DiscoveryCache(Context context, ConfigManager configManager) {
+
+        mPrefs = context.getSharedPreferences(Constants.DISCOVERY_PREFS_NAME,
+                Context.MODE_PRIVATE);
+        mConfigManager = configManager;
+        mDiscoveryUri = configManager.getDiscoveryUri().toString();
+    }
+
+    /**
+     * Returns the cached entry, loading it from disk on first access. When nothing has been
+     * cached yet, the discovery response bundled with the app is returned as an already stale
+     * entry. The entry may be stale, callers should check {@link Entry#isFresh()} and revalidate
+     * if needed.
+     *
+     * @return Cached entry or null if nothing is cached for the configured discovery URI.
+     */
+    Entry get() {
+
+        Entry entry = mEntry;
+        if (entry != null || mLoadedFromDisk) {
+            return entry;
+        }
+        synchronized (this) {
+            if (!mLoadedFromDisk) {
+                if (mEntry == null) {
+                    entry = load();
+                    mEntry = entry != null ? entry : loadBootstrap();
+                }
+                mLoadedFromDisk = true;
+            }
+            return mEntry;
+        }
+    }
+
+    /**
+     * Stores a freshly fetched discovery response. Only the metadata kept by
+     * {@link OAuthDiscoveryResponse} is written to disk, not the raw response body.
+     *
+     * @param discovery Parsed discovery response.
+     * @param eTag      ETag header value, may be null.
+     * @param expiresAt Time in milliseconds until which the response is fresh.
+     * @param persist   Whether the response may be written to disk.
+     * @return Stored entry.
+     */
+    Entry put(OAuthDiscoveryResponse discovery, String eTag, long expiresAt, boolean persist) {
+
+        Entry entry = new Entry(discovery, eTag, expiresAt);
+        mEntry = entry;
+        if (persist) {
+            String body = discovery.toJson().toString();
+            mPrefs.edit().putString(KEY_URI, mDiscoveryUri).putString(KEY_BODY, body)
+                    .putString(KEY_ETAG, eTag).putLong(KEY_EXPIRES_AT, expiresAt).apply();
+        } else {
+            mPrefs.edit().clear().apply();
+        }
+        return entry;
+    }
+
+    /**
+     * Extends the freshness of the cached entry after the server answered 304 Not Modified.
+     *
+     * @param entry     Entry that was revalidated.
+     * @param expiresAt New expiry time in milliseconds.
+     * @return Revalidated entry.
+     */
+    Entry refresh(Entry entry, long expiresAt) {
+
+        Entry refreshed = new Entry(entry.mDiscovery, entry.mETag, expiresAt);
+        mEntry = refreshed;
+        mPrefs.edit().putLong(KEY_EXPIRES_AT, expiresAt).apply();
+        return refreshed;
+    }
+
+    /**
+     * Computes the expiry time of a response from its caching headers. no-cache and no-store
+     * make the response stale right away; otherwise max-age takes precedence over Expires.
+     *
+     * @param cacheControl  Parsed Cache-Control header.
+     * @param expiresHeader Expires header as milliseconds since epoch, 0 if absent.
+     * @param dateHeader    Date header as milliseconds since epoch, 0 if absent.
+     * @param now           Current time in milliseconds.
+     * @return Time in milliseconds until which the response is fresh.
+     */
+    static long computeExpiresAt(CacheControl cacheControl, long expiresHeader, long dateHeader,
+            long now) {
+
+        if (cacheControl.mNoCache || cacheControl.mNoStore) {
+            return now;
+        }
+        if (cacheControl.mMaxAgeSeconds >= 0) {
+            return now + TimeUnit.SECONDS.toMillis(cacheControl.mMaxAgeSeconds);
+        }
+        if (expiresHeader > 0) {
+            // Expires is relative to the server clock, so apply it as an offset to ours.
+            long serverNow = dateHeader > 0 ? dateHeader : now;
+            return now + Math.max(expiresHeader - serverNow, 0);
+        }
+        return now + DEFAULT_MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Returns whether the response may be written to disk.
+     *
+     * @param cacheControl Parsed Cache-Control header.
+     * @return false if the server sent no-store.
+     */
+    static boolean isStorable(CacheControl cacheControl) {
+
+        return !cacheControl.mNoStore;
+    }
+
+    private Entry load() {
+
+        if (!mDiscoveryUri.equals(mPrefs.getString(KEY_URI, null))) {
+            return null;
+        }
+        String body = mPrefs.getString(KEY_BODY, null);
+        if (body == null) {
+            return null;
+        }
+        try (JsonReader reader = new JsonReader(new StringReader(body))) {
+            return new Entry(OAuthDiscoveryResponse.parse(reader),
+                    mPrefs.getString(KEY_ETAG, null), mPrefs.getLong(KEY_EXPIRES_AT, 0));
+        } catch (IOException | ServerException e) {
+            Log.w(LOG_TAG, "Discarding unreadable cached discovery response", e);
+            mPrefs.edit().clear().apply();
+            return null;
+        }
+    }
+
+    private Entry loadBootstrap() {
+
+        JSONObject bootstrap = mConfigManager.readBootstrapDiscovery();
+        if (bootstrap == null) {
+            return null;
+        }
+        try {
+            Log.d(LOG_TAG, "Using the bundled discovery response until it is revalidated");
+            return new Entry(OAuthDiscoveryResponse.fromJson(bootstrap), null, 0);
+        } catch (ServerException e) {
+            Log.w(LOG_TAG, "Ignoring the invalid bundled discovery response", e);
+            return null;
+        }
+    }
+
+    /**
+     * A cached discovery response with its caching metadata.
+     */
+    static final class Entry {
+
+        private final OAuthDiscoveryResponse mDiscovery;
+        private final String mETag;
+        private final long mExpiresAt;
+
+        Entry(OAuthDiscoveryResponse discovery, String eTag, long expiresAt) {
+
+            mDiscovery = discovery;
+            mETag = eTag;
+            mExpiresAt = expiresAt;
+        }
+
+        OAuthDiscoveryResponse getDiscovery() {
+
+            return mDiscovery;
+        }
+
+        String getETag() {
+
+            return mETag;
+        }
+
+        boolean isFresh() {
+
+            return System.currentTimeMillis() < mExpiresAt;
+        }
+    }
+
+    /**
+     * The directives of a Cache-Control header that matter for the discovery response, parsed
+     * once so that the expiry and the storability are decided from the same reading.
+     */
+    static final class CacheControl {
+
+        private static final String NO_CACHE = "no-cache";
+        private static final String NO_STORE = "no-store";
+        private static final String MAX_AGE = "max-age";
+
+        final boolean mNoCache;
+        final boolean mNoStore;
+        /**
+         * max-age in seconds, -1 if absent. An invalid or negative value is taken as 0, so the
+         * response is revalidated rather than trusted for longer than the server meant.
+         */
+        final long mMaxAgeSeconds;
+
+        private CacheControl(boolean noCache, boolean noStore, long maxAgeSeconds) {
+
+            mNoCache = noCache;
+            mNoStore = noStore;
+            mMaxAgeSeconds = maxAgeSeconds;
+        }
+
+        /**
+         * Parses a Cache-Control header value.
+         *
+         * @param header Header value, may be null.
+         * @return Parsed directives.
+         */
+        static CacheControl parse(String header) {
+
+            boolean noCache = false;
+            boolean noStore = false;
+            long maxAge = -1;
+            if (header != null) {
+                for (String directive : header.split(",")) {
+                    int separator = directive.indexOf('=');
+                    String name = (separator < 0 ? directive : directive.substring(0, separator))
+                            .trim().toLowerCase(Locale.US);
+                    if (name.equals(NO_CACHE)) {
+                        // Also no-cache="field", which is treated as no-cache for all fields.
+                        noCache = true;
+                    } else if (name.equals(NO_STORE)) {
+                        noStore = true;
+                    } else if (name.equals(MAX_AGE)) {
+                        long value = parseSeconds(separator < 0 ? ""
+                                : directive.substring(separator + 1));
+                        // With repeated max-age directives the shortest lifetime wins.
+                        maxAge = maxAge < 0 ? value : Math.min(maxAge, value);
+                    }
+                }
+            }
+            return new CacheControl(noCache, noStore, maxAge);
+        }
+
+        private static long parseSeconds(String value) {
+
+            String seconds = value.trim();
+            if (seconds.length() > 1 && seconds.startsWith("\"") && seconds.endsWith("\"")) {
+                seconds = seconds.substring(1, seconds.length() - 1);
+            }
+            try {
+                return Math.max(Long.parseLong(seconds), 0);
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Treating invalid max-age directive as 0: " + value);
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.content.Context;
+
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.http.HttpTransport;
+import org.oidc.agent.util.Clock;
+import org.oidc.agent.util.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates ID tokens locally: the RS256 or ES256 signature against the cached JWKS of the
+ * issuer, and the iss, aud, azp, exp, iat and nonce claims.
+ */
+class IdTokenValidator {
+
+    static final long ALLOWED_CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int ES256_COORDINATE_LENGTH = 32;
+
+    private final JwksCache mJwksCache;
+    private final Clock mClock;
+
+    IdTokenValidator(Context context) {
+
+        this(new JwksCache(context), Clock.SYSTEM);
+    }
+
+    IdTokenValidator(JwksCache jwksCache, Clock clock) {
+
+        mJwksCache = jwksCache;
+        mClock = clock;
+    }
+
+    /**
+     * Validates the ID token. When the signing key is already cached the validation runs on the
+     * calling thread and the returned future is complete; otherwise the key set is fetched on
+     * the scheduler first.
+     *
+     * @param idToken       Decoded ID token.
+     * @param discovery     Discovery response of the issuer.
+     * @param clientId      Client ID the token must be issued to.
+     * @param nonce         Nonce of the authorization request the session was started with,
+     *                      null if none was sent. See {@link #checkNonce(Jwt, String, boolean)}.
+     * @param httpTransport Transport for fetching the key set.
+     * @param scheduler     Scheduler for fetching the key set.
+     * @return Future of the validated token.
+     */
+    AuthFuture<Jwt> validate(final Jwt idToken, final OAuthDiscoveryResponse discovery,
+            final String clientId, final String nonce, final HttpTransport httpTransport,
+            SdkScheduler scheduler) {
+
+        final String alg = idToken.getHeaderParameter(Constants.ALGORITHM);
+        final String kid = idToken.getHeaderParameter(Constants.KEY_ID);
+        final String jwksUri;
+        try {
+            checkAlgorithm(alg, discovery.getIdTokenSigningAlgValuesSupported());
+            if (discovery.getJwksUri() == null) {
+                throw new ClientException("Discovery response does not contain a jwks_uri, the "
+                        + "ID token signature cannot be verified");
+            }
+            jwksUri = discovery.getJwksUri().toString();
+            PublicKey key = mJwksCache.getCachedKey(jwksUri, kid, alg);
+            if (key != null) {
+                validate(idToken, key, alg, discovery.getIssuer(), clientId, nonce);
+                return AuthFuture.completed(idToken);
+            }
+        } catch (ClientException e) {
+            return AuthFuture.failed(e);
+        }
+        final AuthFuture<Jwt> future = new AuthFuture<>();
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    PublicKey key = mJwksCache.getKey(httpTransport, jwksUri, kid, alg);
+                    validate(idToken, key, alg, discovery.getIssuer(), clientId, nonce);
+                    future.complete(idToken);
+                } catch (ClientException | ServerException e) {
+                    future.fail(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    static void checkAlgorithm(String alg, List<String> supported)
+            throws ClientException {
+
+        if (!Constants.RS256.equals(alg) && !Constants.ES256.equals(alg)) {
+            throw new ClientException("ID token signing algorithm " + alg + " is not supported");
+        }
+        if (!supported.isEmpty() && !supported.contains(alg)) {
+            throw new ClientException("ID token signing algorithm " + alg + " is not "
+                    + "advertised by the server");
+        }
+    }
+
+    /**
+     * Validates the signature and claims of the token with a known key.
+     *
+     * @param idToken  Decoded ID token.
+     * @param key      Signing key.
+     * @param alg      Signing algorithm from the token header.
+     * @param issuer   Issuer the token must come from, null to skip the check.
+     * @param clientId Client ID the token must be issued to.
+     * @param nonce    Nonce of the authorization request, null if none was sent.
+     * @throws ClientException If the token is not valid.
+     */
+    void validate(Jwt idToken, PublicKey key, String alg, String issuer, String clientId,
+            String nonce) throws ClientException {
+
+        if (!verifySignature(idToken, key, alg)) {
+            throw new ClientException("ID token signature is invalid");
+        }
+        if (issuer != null && !issuer.equals(idToken.getClaim(Constants.ISSUER_CLAIM))) {
+            throw new ClientException("ID token is not issued by " + issuer);
+        }
+        Object audience = idToken.getClaim(Constants.AUDIENCE);
+        if (audience instanceof List) {
+            List<?> audiences = (List<?>) audience;
+            Object authorizedParty = idToken.getClaim(Constants.AUTHORIZED_PARTY);
+            if (!audiences.contains(clientId)
+                    || audiences.size() > 1 && !clientId.equals(authorizedParty)) {
+                throw new ClientException("ID token is not issued to " + clientId);
+            }
+        } else if (!clientId.equals(audience)) {
+            throw new ClientException("ID token is not issued to " + clientId);
+        }
+        checkNonce(idToken, nonce, false);
+        long now = mClock.currentTimeMillis();
+        if (idToken.getExpiresAt() == 0 || now - ALLOWED_CLOCK_SKEW_MILLIS >= idToken
+                .getExpiresAt()) {
+            throw new ClientException("ID token has expired");
+        }
+        if (idToken.getIssuedAt() == 0 || idToken.getIssuedAt() > now
+                + ALLOWED_CLOCK_SKEW_MILLIS) {
+            throw new ClientException("ID token has no valid issue time");
+        }
+    }
+
+    /**
+     * Checks the nonce claim against the nonce sent with the authorization request. The ID
+     * token of the code exchange must carry it; an ID token from a refresh may omit it, but must
+     * not carry a different one.
+     *
+     * @param idToken  Decoded ID token.
+     * @param nonce    Nonce of the authorization request, null if none was sent.
+     * @param required Whether the claim must be present.
+     * @throws ClientException If the nonce does not match.
+     */
+    static void checkNonce(Jwt idToken, String nonce, boolean required) throws ClientException {
+
+        if (nonce == null) {
+            return;
+        }
+        Object claim = idToken.getClaim(Constants.NONCE);
+        if ((claim != null || required) && !nonce.equals(claim)) {
+            throw new ClientException("ID token nonce does not match the authorization request");
+        }
+    }
+
+    private static boolean verifySignature(Jwt idToken, PublicKey key, String alg)
+            throws ClientException {
+
+        try {
+            Signature signature;
+            byte[] signatureBytes = idToken.getSignature();
+            if (Constants.ES256.equals(alg)) {
+                signature = Signature.getInstance("SHA256withECDSA");
+                signatureBytes = toDerSignature(signatureBytes);
+            } else {
+                signature = Signature.getInstance("SHA256withRSA");
+            }
+            signature.initVerify(key);
+            signature.update(idToken.getSigningInput());
+            return signature.verify(signatureBytes);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new ClientException("ID token signature could not be verified", e);
+        }
+    }
+
+    /**
+     * Converts a JWS ECDSA signature, the concatenated R and S values, to the ASN.1 DER
+     * encoding expected by {@link Signature}.
+     */
+    static byte[] toDerSignature(byte[] jwsSignature) throws GeneralSecurityException {
+
+        if (jwsSignature.length != 2 * ES256_COORDINATE_LENGTH) {
+            throw new GeneralSecurityException("Invalid ES256 signature length");
+        }
+        byte[] r = toDerInteger(jwsSignature, 0);
+        byte[] s = toDerInteger(jwsSignature, ES256_COORDINATE_LENGTH);
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        der.write(0x30);
+        der.write(r.length + s.length);
+        der.write(r, 0, r.length);
+        der.write(s, 0, s.length);
+        return der.toByteArray();
+    }
+
+    private static byte[] toDerInteger(byte[] source, int offset) {
+
+        int start = offset;
+        int end = offset + ES256_COORDINATE_LENGTH;
+        while (start < end - 1 && source[start] == 0) {
+            start++;
+        }
+        boolean pad = (source[start] & 0x80) != 0;
+        int length = end - start + (pad ? 1 : 0);
+        byte[] integer = new byte[length + 2];
+        integer[0] = 0x02;
+        integer[1] = (byte) length;
+        System.arraycopy(source, start, integer, pad ? 3 : 2, end - start);
+        return integer;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.http.HttpRequest;
+import org.oidc.agent.http.HttpResponse;
+import org.oidc.agent.http.HttpTransport;
+import org.oidc.agent.util.Clock;
+import org.oidc.agent.util.Constants;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EllipticCurve;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the JSON Web Key Set of the identity server in memory and in shared preferences. The
+ * key set is fetched once and fetched again only when a token is signed with a key it does not
+ * contain, at most once per {@link #MIN_REFRESH_INTERVAL_MILLIS}.
+ */
+class JwksCache {
+
+    static final long MIN_REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final String LOG_TAG = "JwksCache";
+    private static final String KEY_URI = "uri";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_FETCHED_AT = "fetchedAt";
+    private static final String KTY_RSA = "RSA";
+    private static final String KTY_EC = "EC";
+    private static final String USE_ENCRYPTION = "enc";
+    private static final String CURVE = "crv";
+    private static final String CURVE_P256 = "P-256";
+
+    /**
+     * Domain parameters of the NIST P-256 curve (secp256r1), used by ES256.
+     */
+    private static final ECParameterSpec P256 = new ECParameterSpec(
+            new EllipticCurve(
+                    new ECFieldFp(new BigInteger(
+                            "FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFF",
+                            16)),
+                    new BigInteger(
+                            "FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFC", 16),
+                    new BigInteger(
+                            "5AC635D8AA3A93E7B3EBBD55769886BC651D06B0CC53B0F63BCE3C3E27D2604B",
+                            16)),
+            new ECPoint(
+                    new BigInteger(
+                            "6B17D1F2E12C4247F8BCE6E563A440F277037D812DEB33A0F4A13945D898C296",
+                            16),
+                    new BigInteger(
+                            "4FE342E2FE1A7F9B8EE7EB4A7C0F9E162BCE33576B315ECECBB6406837BF51F5",
+                            16)),
+            new BigInteger("FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551",
+                    16),
+            1);
+
+    private final SharedPreferences mPrefs;
+    private final Clock mClock;
+    private final ConcurrentHashMap<String, PublicKey> mParsedKeys = new ConcurrentHashMap<>();
+    private volatile String mJwksUri;
+    private volatile JSONArray mKeys;
+    private volatile long mFetchedAt;
+    private volatile boolean mLoadedFromDisk;
+
+    JwksCache(Context context) {
+
+        this(context.getSharedPreferences(Constants.JWKS_PREFS_NAME, Context.MODE_PRIVATE),
+                Clock.SYSTEM);
+    }
+
+    JwksCache(SharedPreferences prefs, Clock clock) {
+
+        mPrefs = prefs;
+        mClock = clock;
+    }
+
+    /**
+     * Returns the key from the cached key set, without any network call.
+     *
+     * @param jwksUri JWKS URI of the issuer.
+     * @param kid     Key ID from the token header, may be null.
+     * @param alg     Signing algorithm from the token header.
+     * @return Key or null if the cached key set has no matching key.
+     */
+    PublicKey getCachedKey(String jwksUri, String kid, String alg) {
+
+        loadFromDisk();
+        if (!jwksUri.equals(mJwksUri)) {
+            return null;
+        }
+        return findKey(kid, alg);
+    }
+
+    /**
+     * Returns the key, fetching the key set if it is not cached yet or does not contain the key
+     * and the last fetch is long enough ago.
+     *
+     * @param httpTransport Transport.
+     * @param jwksUri       JWKS URI of the issuer.
+     * @param kid           Key ID from the token header, may be null.
+     * @param alg           Signing algorithm from the token header.
+     * @return Key.
+     * @throws ClientException If the key set has no matching key.
+     * @throws ServerException If the key set could not be fetched.
+     */
+    synchronized PublicKey getKey(HttpTransport httpTransport, String jwksUri, String kid,
+            String alg) throws ClientException, ServerException {
+
+        PublicKey key = getCachedKey(jwksUri, kid, alg);
+        if (key != null) {
+            return key;
+        }
+        boolean cached = jwksUri.equals(mJwksUri);
+        if (cached && mClock.currentTimeMillis() - mFetchedAt < MIN_REFRESH_INTERVAL_MILLIS) {
+            throw new ClientException("No signing key " + kid + " in the JWKS, which was "
+                    + "fetched too recently to fetch it again");
+        }
+        fetch(httpTransport, jwksUri);
+        key = findKey(kid, alg);
+        if (key == null) {
+            throw new ClientException("No signing key " + kid + " in the JWKS of " + jwksUri);
+        }
+        return key;
+    }
+
+    private void fetch(HttpTransport httpTransport, String jwksUri) throws ServerException {
+
+        Log.d(LOG_TAG, "Fetching JWKS from " + jwksUri);
+        HttpRequest request = new HttpRequest.Builder(jwksUri)
+                .setHeader(Constants.ACCEPT, Constants.APPLICATION_JSON)
+                .build();
+        try {
+            HttpResponse response = httpTransport.newCall(request).execute();
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                response.close();
+                throw new ServerException("Server returns " + response.getCode() + " when "
+                        + "calling the JWKS endpoint");
+            }
+            String body = response.readBodyString();
+            long fetchedAt = mClock.currentTimeMillis();
+            update(jwksUri, new JSONObject(body).getJSONArray(Constants.KEYS), fetchedAt);
+            mPrefs.edit().putString(KEY_URI, jwksUri).putString(KEY_BODY, body)
+                    .putLong(KEY_FETCHED_AT, fetchedAt).apply();
+        } catch (IOException e) {
+            throw new ServerException("Error while calling the JWKS endpoint. ", e);
+        } catch (JSONException e) {
+            throw new ServerException("Error while parsing the JWKS as JSON. ", e);
+        }
+    }
+
+    private void loadFromDisk() {
+
+        if (!mLoadedFromDisk) {
+            synchronized (mPrefs) {
+                if (!mLoadedFromDisk) {
+                    readFromDisk();
+                    mLoadedFromDisk = true;
+                }
+            }
+        }
+    }
+
+    private void readFromDisk() {
+
+        String body = mPrefs.getString(KEY_BODY, null);
+        if (body == null) {
+            return;
+        }
+        try {
+            update(mPrefs.getString(KEY_URI, null),
+                    new JSONObject(body).getJSONArray(Constants.KEYS),
+                    mPrefs.getLong(KEY_FETCHED_AT, 0));
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Discarding unreadable cached JWKS", e);
+            mPrefs.edit().clear().apply();
+        }
+    }
+
+    private void update(String jwksUri, JSONArray keys, long fetchedAt) {
+
+        mParsedKeys.clear();
+        mKeys = keys;
+        mJwksUri = jwksUri;
+        mFetchedAt = fetchedAt;
+    }
+
+    private PublicKey findKey(String kid, String alg) {
+
+        String kty = alg != null && alg.startsWith("ES") ? KTY_EC : KTY_RSA;
+        if (kid != null) {
+            PublicKey parsed = mParsedKeys.get(kid);
+            // A key ID reused for a key of another type does not match the algorithm.
+            if (parsed != null && kty.equals(parsed.getAlgorithm())) {
+                return parsed;
+            }
+        }
+        JSONArray keys = mKeys;
+        if (keys == null) {
+            return null;
+        }
+        for (int i = 0; i < keys.length(); i++) {
+            JSONObject jwk = keys.optJSONObject(i);
+            if (jwk == null || !kty.equals(jwk.optString(Constants.KEY_TYPE))
+                    || USE_ENCRYPTION.equals(jwk.optString(Constants.KEY_USE))) {
+                continue;
+            }
+            String keyId = jwk.optString(Constants.KEY_ID, null);
+            if (kid != null && !kid.equals(keyId)) {
+                continue;
+            }
+            try {
+                PublicKey key = toPublicKey(jwk);
+                if (keyId != null) {
+                    mParsedKeys.put(keyId, key);
+                }
+                return key;
+            } catch (GeneralSecurityException | JSONException | IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Skipping unusable JWK " + keyId, e);
+            }
+        }
+        return null;
+    }
+
+    private static PublicKey toPublicKey(JSONObject jwk)
+            throws GeneralSecurityException, JSONException {
+
+        if (KTY_RSA.equals(jwk.getString(Constants.KEY_TYPE))) {
+            return KeyFactory.getInstance(KTY_RSA).generatePublic(new RSAPublicKeySpec(
+                    new BigInteger(1, Jwt.decodeBase64Url(jwk.getString("n"))),
+                    new BigInteger(1, Jwt.decodeBase64Url(jwk.getString("e")))));
+        }
+        if (!CURVE_P256.equals(jwk.optString(CURVE))) {
+            throw new GeneralSecurityException("Unsupported curve " + jwk.optString(CURVE));
+        }
+        ECPoint point = new ECPoint(
+                new BigInteger(1, Jwt.decodeBase64Url(jwk.getString("x"))),
+                new BigInteger(1, Jwt.decodeBase64Url(jwk.getString("y"))));
+        return KeyFactory.getInstance(KTY_EC).generatePublic(new ECPublicKeySpec(point, P256));
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.util.Constants;
+
+import java.nio.charset.Charset;
+
+import okio.ByteString;
+
+/**
+ * A decoded JSON Web Token. Decoding does not verify the signature. The header and claims are
+ * read-only, so what a validator has checked cannot be changed afterwards.
+ */
+public final class Jwt {
+
+    private final String mToken;
+    private final String mSignedContent;
+    private final String mEncodedSignature;
+    private final Claims mHeader;
+    private final Claims mClaims;
+    private final String mSubject;
+    private final long mExpiresAt;
+    private final long mIssuedAt;
+
+    private Jwt(String token, String[] parts, JSONObject header, JSONObject claims) {
+
+        mToken = token;
+        mSignedContent = parts[0] + "." + parts[1];
+        mEncodedSignature = parts[2];
+        mHeader = Claims.fromJson(header);
+        mClaims = Claims.fromJson(claims);
+        mSubject = claims.optString(Constants.SUBJECT, null);
+        mExpiresAt = claims.optLong(Constants.EXPIRATION_TIME) * 1000;
+        mIssuedAt = claims.optLong(Constants.ISSUED_AT) * 1000;
+    }
+
+    /**
+     * Decodes the header and claims of a token in JWS compact serialization.
+     *
+     * @param token Token.
+     * @return Decoded token.
+     * @throws ClientException If the token is not a JWT.
+     */
+    public static Jwt decode(@NonNull String token) throws ClientException {
+
+        String[] parts = token.split("\\.", -1);
+        if (parts.length != 3) {
+            throw new ClientException("Token is not a JWT");
+        }
+        try {
+            return new Jwt(token, parts, new JSONObject(decodePart(parts[0])),
+                    new JSONObject(decodePart(parts[1])));
+        } catch (IllegalArgumentException | JSONException e) {
+            throw new ClientException("Token is not a JWT", e);
+        }
+    }
+
+    /**
+     * Decodes the token, or returns null if it is not a JWT, e.g. an opaque access token.
+     *
+     * @param token Token, may be null.
+     * @return Decoded token or null.
+     */
+    @Nullable
+    static Jwt decodeOrNull(@Nullable String token) {
+
+        if (token == null) {
+            return null;
+        }
+        try {
+            return decode(token);
+        } catch (ClientException e) {
+            return null;
+        }
+    }
+
+    private static String decodePart(String part) {
+
+        return new String(decodeBase64Url(part), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Decodes a base64url value as used in JWTs and JWKs.
+     *
+     * @param value Encoded value.
+     * @return Decoded bytes.
+     * @throws IllegalArgumentException If the value is not valid base64url.
+     */
+    static byte[] decodeBase64Url(String value) {
+
+        ByteString decoded = ByteString.decodeBase64(value);
+        if (decoded == null) {
+            throw new IllegalArgumentException("Value is not valid base64url");
+        }
+        return decoded.toByteArray();
+    }
+
+    /**
+     * Returns the encoded token.
+     *
+     * @return Token.
+     */
+    public String getToken() {
+
+        return mToken;
+    }
+
+    /**
+     * Returns the signing input, the encoded header and claims joined by a dot.
+     *
+     * @return Signing input.
+     */
+    byte[] getSigningInput() {
+
+        return mSignedContent.getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * Returns the decoded signature.
+     *
+     * @return Signature bytes.
+     */
+    byte[] getSignature() {
+
+        return decodeBase64Url(mEncodedSignature);
+    }
+
+    /**
+     * Returns the value of a header parameter.
+     *
+     * @param name Header parameter name, e.g. alg or kid.
+     * @return Value or null.
+     */
+    @Nullable
+    public String getHeaderParameter(String name) {
+
+        return mHeader.getString(name);
+    }
+
+    /**
+     * Returns the JOSE header.
+     *
+     * @return Read-only header.
+     */
+    @NonNull
+    public Claims getHeader() {
+
+        return mHeader;
+    }
+
+    /**
+     * Returns all claims of the token.
+     *
+     * @return Read-only claims.
+     */
+    @NonNull
+    public Claims getClaims() {
+
+        return mClaims;
+    }
+
+    /**
+     * Returns the value of a claim.
+     *
+     * @param name Claim name.
+     * @return String, Boolean, Long, Double, read-only Claims or List, or null if the token does
+     * not contain the claim.
+     */
+    @Nullable
+    public Object getClaim(String name) {
+
+        return mClaims.get(name);
+    }
+
+    /**
+     * Returns the subject (sub) claim.
+     *
+     * @return Subject or null.
+     */
+    @Nullable
+    public String getSubject() {
+
+        return mSubject;
+    }
+
+    /**
+     * Returns the expiration time (exp) claim.
+     *
+     * @return Milliseconds since epoch, 0 if the token has no expiration time.
+     */
+    public long getExpiresAt() {
+
+        return mExpiresAt;
+    }
+
+    /**
+     * Returns the issued at (iat) claim.
+     *
+     * @return Milliseconds since epoch, 0 if the token has no issue time.
+     */
+    public long getIssuedAt() {
+
+        return mIssuedAt;
+    }
+
+    /**
+     * Returns whether the token has expired.
+     *
+     * @return true if the token has an expiration time in the past.
+     */
+    public boolean isExpired() {
+
+        return mExpiresAt > 0 && System.currentTimeMillis() >= mExpiresAt;
+    }
+}
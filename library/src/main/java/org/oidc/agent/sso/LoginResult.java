@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * The outcome of a completed login: the tokens, the decoded ID token and the userinfo response,
+ * fetched together by {@link LoginService#completeLogin(android.content.Intent, long,
+ * java.util.concurrent.TimeUnit)}.
+ */
+public final class LoginResult {
+
+    private final OAuth2TokenResponse mTokenResponse;
+    private final Jwt mIdToken;
+    private final UserInfoResponse mUserInfo;
+
+    LoginResult(OAuth2TokenResponse tokenResponse, Jwt idToken, UserInfoResponse userInfo) {
+
+        mTokenResponse = tokenResponse;
+        mIdToken = idToken;
+        mUserInfo = userInfo;
+    }
+
+    /**
+     * Returns the tokens issued for the login.
+     *
+     * @return Token response.
+     */
+    @NonNull
+    public OAuth2TokenResponse getTokenResponse() {
+
+        return mTokenResponse;
+    }
+
+    /**
+     * Returns the decoded ID token. Its signature is not verified, use
+     * {@link LoginService#validateIdToken()} for that.
+     *
+     * @return ID token, or null if the token response does not contain a valid one.
+     */
+    @Nullable
+    public Jwt getIdToken() {
+
+        return mIdToken;
+    }
+
+    /**
+     * Returns the userinfo response.
+     *
+     * @return Userinfo response, or null if the identity server has no userinfo endpoint.
+     */
+    @Nullable
+    public UserInfoResponse getUserInfo() {
+
+        return mUserInfo;
+    }
+}
@@ -20,61 +20,198 @@ package org.oidc.agent.sso;
 
 import android.app.PendingIntent;
 import android.content.Context;
+import android.content.ContextWrapper;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Looper;
+import android.util.JsonReader;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.browser.customtabs.CustomTabsIntent;
 
 import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationException;
 import net.openid.appauth.AuthorizationRequest;
 import net.openid.appauth.AuthorizationResponse;
 import net.openid.appauth.AuthorizationService;
 import net.openid.appauth.AuthorizationServiceConfiguration;
 import net.openid.appauth.ResponseTypeValues;
-import okio.Okio;
+import net.openid.appauth.TokenResponse;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.oidc.agent.exception.ClientException;
 import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.http.Deadline;
+import org.oidc.agent.http.DefaultHttpTransport;
+import org.oidc.agent.http.HttpRequest;
+import org.oidc.agent.http.HttpResponse;
+import org.oidc.agent.http.HttpTransport;
+import org.oidc.agent.http.ResilientTransport;
+import org.oidc.agent.http.RetryPolicy;
 import org.oidc.agent.util.ConfigManager;
 import org.oidc.agent.util.Constants;
-import org.oidc.agent.util.Util;
+import org.oidc.agent.util.JsonStreams;
+import org.oidc.agent.util.UrlBuilder;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import okio.ByteString;
+
 /**
  * Handles the login process by making use of AppAuth library.
  */
 public class LoginService {
 
-    private final AtomicReference<CustomTabsIntent> customTabIntent = new AtomicReference<>();
+    private final AtomicReference<PreparedAuthorization> mPreparedAuthorization =
+            new AtomicReference<>();
     private ConfigManager mConfigManager;
     private Context mContext;
-    private OAuth2TokenResponse mOAuth2TokenResponse;
+    private final AtomicReference<SessionState> mState =
+            new AtomicReference<>(SessionState.IDLE);
     private AuthorizationService mAuthorizationService;
     private static final String LOG_TAG = "LoginService";
-    private AuthState mAuthState;
-    private static LoginService mLoginService;
-    private OAuthDiscoveryResponse mDiscovery;
+    private static final long ACCESS_TOKEN_EXPIRY_TOLERANCE_MILLIS = 5000;
+    /**
+     * Time during which a launched authorization request blocks another one, so that a double
+     * tap on the login button opens the browser only once.
+     */
+    private static final long AUTHORIZATION_DEDUPE_WINDOW_MILLIS = 2000;
+    private static final int NONCE_BYTES = 24;
+    private static final SecureRandom NONCE_RANDOM = new SecureRandom();
+    private static volatile LoginService mLoginService;
+    private static final Object INIT_LOCK = new Object();
+    private static AuthFuture<LoginService> sInitialization;
+    private DiscoveryCache mDiscoveryCache;
+    private HttpTransport mBaseTransport = new DefaultHttpTransport();
+    private RetryPolicy mRetryPolicy = RetryPolicy.DEFAULT;
+    private volatile HttpTransport mHttpTransport =
+            new ResilientTransport(mBaseTransport, mRetryPolicy);
+    private SdkScheduler mScheduler;
+    private boolean mRefreshStopped;
+    private final TokenRefresher mTokenRefresher = new TokenRefresher(new RefreshHost());
+    private final UserInfoCache mUserInfoCache = new UserInfoCache();
+    private final SingleFlight<String, UserInfoResponse> mUserInfoFlights = new SingleFlight<>();
+    private SessionStore mSessionStore;
+    private IdTokenValidator mIdTokenValidator;
+    private final AtomicReference<Uri> mPendingBrowserLogoutUri = new AtomicReference<>();
+    private final CopyOnWriteArrayList<ListenerRegistration> mSessionListeners =
+            new CopyOnWriteArrayList<>();
 
     private LoginService(Context context) throws ClientException {
 
+        // The service lives as long as the process, so it must not hold on to an activity.
+        if (context.getApplicationContext() != null) {
+            context = context.getApplicationContext();
+        }
         mContext = context;
         if (mConfigManager == null) {
             mConfigManager = ConfigManager.getInstance(context);
         }
+        mDiscoveryCache = new DiscoveryCache(context, mConfigManager);
+        mSessionStore = new SessionStore(context);
+        mIdTokenValidator = new IdTokenValidator(context);
+        restoreSession();
+        if (!mState.get().hasTokens()) {
+            getAuthorizationService();
+        }
+        prefetchAuthorization();
+    }
+
+    /**
+     * Restores the session persisted before the process was last stopped, if any.
+     */
+    private void restoreSession() {
+
+        // A deferred browser logout must survive process death, or the next login would reuse
+        // the previous user's browser session.
+        mPendingBrowserLogoutUri.set(mSessionStore.loadPendingLogoutUri());
+        SessionStore.Session session = mSessionStore.load();
+        if (session == null) {
+            return;
+        }
+        OAuth2TokenResponse tokenResponse = session.getTokenResponse();
+        mState.set(SessionState.restored(session.getAuthState(), session.getDiscovery(),
+                tokenResponse, buildLogoutUri(session.getDiscovery(), tokenResponse)));
+        if (tokenResponse != null) {
+            mTokenRefresher.schedule(tokenResponse);
+        }
+        Log.d(LOG_TAG, "Restored session for service provider :" + mConfigManager.getClientId());
+    }
+
+    /**
+     * Writes the current session to the persistent store, or clears the store when there is no
+     * session. The snapshot is read under the store lock, so that concurrent writers cannot
+     * leave an older snapshot on disk.
+     */
+    private void persistSession() {
+
+        synchronized (mSessionStore) {
+            SessionState state = mState.get();
+            if (state.getAuthState() != null) {
+                mSessionStore.save(new SessionStore.Session(state.getAuthState(),
+                        state.getDiscovery(), state.getTokenResponse()));
+            } else {
+                mSessionStore.clear();
+            }
+        }
+    }
+
+    /**
+     * Replaces the end-session URL of the deferred browser logout, in memory and on disk.
+     *
+     * @param logoutUri End-session URL, null once no browser logout is pending.
+     * @return The URL that was pending before, or null.
+     */
+    private Uri swapPendingBrowserLogoutUri(Uri logoutUri) {
+
+        synchronized (mSessionStore) {
+            Uri previous = mPendingBrowserLogoutUri.getAndSet(logoutUri);
+            if (previous != null || logoutUri != null) {
+                mSessionStore.savePendingLogoutUri(logoutUri);
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Computes the next session snapshot from the current one.
+     */
+    private interface Transition {
+
+        /**
+         * @param current Current snapshot.
+         * @return Next snapshot, or null to leave the session unchanged.
+         */
+        SessionState apply(SessionState current);
+    }
+
+    /**
+     * Replaces the session snapshot atomically. If another thread changes the session
+     * concurrently, the transition is applied again to the newer snapshot.
+     *
+     * @param transition Transition.
+     * @return The new snapshot, or null if the transition left the session unchanged.
+     */
+    private SessionState transition(Transition transition) {
+
+        while (true) {
+            SessionState current = mState.get();
+            SessionState next = transition.apply(current);
+            if (next == null) {
+                return null;
+            }
+            if (mState.compareAndSet(current, next)) {
+                return next;
+            }
+        }
     }
 
     /**
@@ -83,7 +220,8 @@ public class LoginService {
      * @param context Context
      * @return LoginService
      */
-    public static LoginService getInstance(@NonNull Context context) throws ClientException {
+    public static synchronized LoginService getInstance(@NonNull Context context)
+            throws ClientException {
 
         if (mLoginService == null) {
             mLoginService = new LoginService(context);
@@ -92,93 +230,468 @@ public class LoginService {
     }
 
     /**
-     * Handles the authorization flow by getting the endpoints from discovery service.
+     * Initializes the login service on a background thread. The configuration and the persisted
+     * session are read from disk there, so that no I/O happens on the calling thread. Once the
+     * future completes, {@link #getInstance(Context)} returns without blocking and
+     * {@link #isUserLoggedIn()} is answered from memory.
+     *
+     * @param context Context, used the same way as by {@link #getInstance(Context)}.
+     * @return Future of the login service.
+     */
+    public static AuthFuture<LoginService> initialize(@NonNull final Context context) {
+
+        LoginService loginService = mLoginService;
+        if (loginService != null) {
+            return AuthFuture.completed(loginService);
+        }
+        final AuthFuture<LoginService> future;
+        synchronized (INIT_LOCK) {
+            if (sInitialization != null) {
+                return sInitialization;
+            }
+            future = new AuthFuture<>();
+            sInitialization = future;
+        }
+        SdkScheduler.initThread().execute(() -> {
+            try {
+                LoginService service = getInstance(context);
+                service.mConfigManager.hasConfigurationChanged();
+                future.complete(service);
+            } catch (ClientException e) {
+                Log.e(LOG_TAG, "Error while initializing the login service", e);
+                synchronized (INIT_LOCK) {
+                    // Allow the initialization to be retried.
+                    sInitialization = null;
+                }
+                future.fail(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Initializes the login service on a background thread.
+     *
+     * @param context  Context, used the same way as by {@link #getInstance(Context)}.
+     * @param callback Callback, called on the main thread.
+     */
+    public static void initialize(@NonNull Context context,
+            @NonNull AuthCallback<LoginService> callback) {
+
+        initialize(context).addCallback(callback, SdkScheduler.mainThread());
+    }
+
+    /**
+     * Sets the transport used for calls to the identity server, e.g. to route them through the
+     * application's own HTTP client. Defaults to {@link DefaultHttpTransport}. The calls made
+     * through it are retried according to the {@link RetryPolicy}.
+     *
+     * @param httpTransport HttpTransport.
+     */
+    public synchronized void setHttpTransport(@NonNull HttpTransport httpTransport) {
+
+        mBaseTransport = httpTransport;
+        mHttpTransport = new ResilientTransport(httpTransport, mRetryPolicy);
+    }
+
+    /**
+     * Sets how failed calls to the identity server are retried, and when an endpoint that keeps
+     * failing stops being called for a while. Defaults to {@link RetryPolicy#DEFAULT}.
+     *
+     * @param retryPolicy RetryPolicy.
+     */
+    public synchronized void setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+
+        mRetryPolicy = retryPolicy;
+        mHttpTransport = new ResilientTransport(mBaseTransport, retryPolicy);
+    }
+
+    HttpTransport getHttpTransport() {
+
+        return mHttpTransport;
+    }
+
+    /**
+     * Sets the executor used for the background work of the SDK, e.g. to run it on the
+     * application's own thread pool. By default the SDK uses a small pool of its own threads.
+     * Token refreshes that are already scheduled are kept and run on the new executor.
+     *
+     * @param executor Executor.
+     */
+    public synchronized void setExecutor(@NonNull Executor executor) {
+
+        if (mScheduler != null) {
+            // Keep the timer, which holds the refresh scheduled for the restored session.
+            mScheduler.setIoExecutor(executor);
+        } else {
+            startScheduler(new SdkScheduler(executor));
+        }
+    }
+
+    /**
+     * Returns the scheduler for the background work, creating it if it does not exist yet or
+     * was shut down by {@link #dispose()}.
+     *
+     * @return SdkScheduler.
+     */
+    synchronized SdkScheduler getScheduler() {
+
+        if (mScheduler == null) {
+            startScheduler(new SdkScheduler(SdkScheduler.DEFAULT_MAX_IO_THREADS));
+        }
+        return mScheduler;
+    }
+
+    /**
+     * Installs a new scheduler. After {@link #dispose()} the token refresh of a session that is
+     * still logged in is scheduled again. That is done as a task, since the refresher calls back
+     * into {@link #getScheduler()} under its own lock.
+     */
+    private void startScheduler(SdkScheduler scheduler) {
+
+        mScheduler = scheduler;
+        if (mRefreshStopped) {
+            mRefreshStopped = false;
+            scheduler.execute(this::scheduleTokenRefresh);
+        }
+    }
+
+    /**
+     * Schedules the refresh of the current access token, if any.
+     */
+    private void scheduleTokenRefresh() {
+
+        OAuth2TokenResponse tokenResponse = mState.get().getTokenResponse();
+        if (tokenResponse != null) {
+            mTokenRefresher.schedule(tokenResponse);
+        }
+    }
+
+    /**
+     * Handles the authorization flow by getting the endpoints from discovery service. A cached
+     * discovery response is used right away when available and revalidated in the background
+     * once it has expired. If the discovery response cannot be fetched, the cancel intent is
+     * sent.
      *
      * @param completionIntent
      * @param cancelIntent
      */
     public void doAuthorization(PendingIntent completionIntent, PendingIntent cancelIntent) {
 
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(() -> {
+        doAuthorization(completionIntent, cancelIntent, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handles the authorization flow with a time budget for the network calls made before the
+     * browser is opened. If the discovery response cannot be fetched within the budget, the
+     * cancel intent is sent. The time the user spends in the browser is not part of the budget.
+     *
+     * @param completionIntent CompletionIntent.
+     * @param cancelIntent     CancelIntent.
+     * @param timeout          Time budget, 0 for none.
+     * @param unit             Unit of the timeout.
+     */
+    public void doAuthorization(PendingIntent completionIntent, PendingIntent cancelIntent,
+            long timeout, TimeUnit unit) {
+
+        final Deadline deadline = Deadline.after(timeout, unit);
+        SessionState discovering = transition(current ->
+                isLoginInProgress(current) ? null : current.discovering());
+        if (discovering == null) {
+            Log.d(LOG_TAG, "Ignoring authorization request, a login is already in progress");
+            return;
+        }
+        final long flowId = discovering.getFlowId();
+        getScheduler().execute(() -> {
+            DiscoveryCache.Entry cached = mDiscoveryCache.get();
+            if (cached != null) {
+                authorizeRequest(flowId, cached.getDiscovery(), completionIntent, cancelIntent);
+                if (!cached.isFresh()) {
+                    revalidateDiscovery(cached);
+                }
+                return;
+            }
             try {
-                mDiscovery = callDiscoveryUri();
-            } catch (ServerException e) {
-                Log.e(LOG_TAG, e.getMessage());
-            } catch (ClientException e) {
+                authorizeRequest(flowId, callDiscoveryUri(null, deadline).getDiscovery(),
+                        completionIntent, cancelIntent);
+            } catch (ServerException | ClientException e) {
                 Log.e(LOG_TAG, e.getMessage());
+                if (transition(current -> current.isIn(SessionState.Phase.DISCOVERING, flowId)
+                        ? current.settled() : null) != null) {
+                    sendCancelIntent(cancelIntent);
+                }
             }
-            authorizeRequest(completionIntent, cancelIntent);
         });
     }
 
     /**
-     * Call discovery endpoint of Identity Server.
+     * Tells the application that the login could not be started, the same way as when the user
+     * cancels it in the browser.
      *
-     * @return OAuthDiscovery.
-     * @throws ServerException
-     * @throws ClientException
+     * @param cancelIntent Cancel intent given to doAuthorization.
+     */
+    private void sendCancelIntent(PendingIntent cancelIntent) {
+
+        if (cancelIntent == null) {
+            return;
+        }
+        try {
+            cancelIntent.send();
+        } catch (PendingIntent.CanceledException e) {
+            Log.w(LOG_TAG, "Cancel intent is no longer valid", e);
+        }
+    }
+
+    /**
+     * Returns whether a login started earlier is still running, in which case a new
+     * authorization request is ignored.
+     *
+     * @param state Session snapshot.
+     * @return true if a login is in progress.
      */
-    private OAuthDiscoveryResponse callDiscoveryUri() throws ServerException, ClientException {
+    private static boolean isLoginInProgress(SessionState state) {
+
+        switch (state.getPhase()) {
+            case DISCOVERING:
+            case EXCHANGING:
+                return true;
+            case AUTHORIZING:
+                // The user may come back from the browser without finishing the login, so only
+                // a request launched moments ago blocks a new one.
+                return state.getPhaseAgeMillis() < AUTHORIZATION_DEDUPE_WINDOW_MILLIS;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Fetches and validates the discovery response in the background, unless a fresh response
+     * is already cached. Call it at app start so that the first login does not wait for
+     * discovery.
+     *
+     * @return Future of the current discovery response.
+     */
+    public AuthFuture<OAuthDiscoveryResponse> prefetch() {
+
+        AuthFuture<OAuthDiscoveryResponse> future = new AuthFuture<>();
+        getScheduler().execute(() -> {
+            DiscoveryCache.Entry cached = mDiscoveryCache.get();
+            try {
+                if (cached == null || !cached.isFresh()) {
+                    cached = callDiscoveryUri(cached, Deadline.NONE);
+                }
+                onDiscoveryUpdated(cached.getDiscovery());
+                future.complete(cached.getDiscovery());
+            } catch (ServerException | ClientException e) {
+                Log.w(LOG_TAG, "Could not prefetch the discovery response: " + e.getMessage());
+                future.fail(e);
+                return;
+            }
+            prefetchAuthorization();
+        });
+        return future;
+    }
 
-        HttpURLConnection conn;
-        URL userInfoEndpoint;
+    /**
+     * Revalidates a stale discovery response against the discovery endpoint.
+     *
+     * @param cached Cached discovery response.
+     */
+    private void revalidateDiscovery(DiscoveryCache.Entry cached) {
 
         try {
-            Log.d(LOG_TAG, "Call discovery service of identity server via: " + mConfigManager
-                    .getDiscoveryUri().toString());
-            userInfoEndpoint = new URL(mConfigManager.getDiscoveryUri().toString());
-            conn = (HttpURLConnection) userInfoEndpoint.openConnection();
-            conn.setRequestMethod(Constants.HTTP_GET);
-            conn.setDoInput(true);
-            String response = Okio.buffer(Okio.source(conn.getInputStream()))
-                    .readString(Charset.forName("UTF-8"));
-            conn.disconnect();
-            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                Log.e(LOG_TAG, "Server returns" + conn.getResponseCode() + "when "
+            onDiscoveryUpdated(callDiscoveryUri(cached, Deadline.NONE).getDiscovery());
+        } catch (ServerException e) {
+            Log.w(LOG_TAG, "Could not revalidate the discovery response: " + e.getMessage());
+        } catch (ClientException e) {
+            Log.w(LOG_TAG, "Could not revalidate the discovery response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves the session to a new discovery response.
+     *
+     * @param discovery Discovery response.
+     */
+    private void onDiscoveryUpdated(final OAuthDiscoveryResponse discovery) {
+
+        transition(current -> current.getDiscovery() == discovery ? null
+                : current.withDiscovery(discovery,
+                        buildLogoutUri(discovery, current.getTokenResponse())));
+    }
+
+    /**
+     * Call discovery endpoint of Identity Server. When a cached response is given, the request
+     * is made conditional on its ETag.
+     *
+     * @param cached   Cached discovery response to revalidate, or null.
+     * @param deadline Deadline bounding the timeouts of the call.
+     * @return Cache entry holding the current discovery response.
+     * @throws ServerException
+     * @throws ClientException
+     */
+    private DiscoveryCache.Entry callDiscoveryUri(DiscoveryCache.Entry cached, Deadline deadline)
+            throws ServerException, ClientException {
+
+        String discoveryUri = mConfigManager.getDiscoveryUri().toString();
+        Log.d(LOG_TAG, "Call discovery service of identity server via: " + discoveryUri);
+        HttpRequest.Builder builder = new HttpRequest.Builder(discoveryUri).setDeadline(deadline);
+        if (cached != null && cached.getETag() != null) {
+            builder.setHeader(Constants.IF_NONE_MATCH, cached.getETag());
+        }
+        try (HttpResponse response = mHttpTransport.newCall(builder.build()).execute()) {
+            DiscoveryCache.CacheControl cacheControl = DiscoveryCache.CacheControl.parse(
+                    response.getHeader(Constants.CACHE_CONTROL));
+            long expiresAt = DiscoveryCache.computeExpiresAt(cacheControl,
+                    response.getHeaderDate(Constants.EXPIRES),
+                    response.getHeaderDate(Constants.DATE), System.currentTimeMillis());
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                Log.d(LOG_TAG, "Discovery response is not modified");
+                return mDiscoveryCache.refresh(cached, expiresAt);
+            }
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Server returns" + response.getCode() + "when "
                         + "calling discovery endpoint");
-                throw new ServerException("Server returns" + conn.getResponseCode() + "when "
+                throw new ServerException("Server returns" + response.getCode() + "when "
                         + "calling discovery endpoint");
             }
-            JSONObject discoveryResponse = new JSONObject(response);
-            return new OAuthDiscoveryResponse(discoveryResponse);
+            if (response.getBody() == null) {
+                throw new ServerException("Discovery endpoint returned an empty response");
+            }
+            OAuthDiscoveryResponse discovery;
+            try (JsonReader reader = JsonStreams.newReader(response.getBody())) {
+                discovery = OAuthDiscoveryResponse.parse(reader);
+            }
+            return mDiscoveryCache.put(discovery, response.getHeader(Constants.ETAG), expiresAt,
+                    DiscoveryCache.isStorable(cacheControl));
 
         } catch (MalformedURLException e) {
             throw new ClientException("Discovery endpoint is malformed. ", e);
         } catch (IOException e) {
             throw new ServerException("Error while calling the discovery endpoint. ", e);
-        } catch (JSONException e) {
-            throw new ServerException("Error while parsing the discovery response as JSON. ", e);
         }
     }
 
     /**
-     * Call authorization endpoint and authorize the request.
+     * Call authorization endpoint and authorize the request. The request is not launched if the
+     * session left the login flow while discovery was resolved, e.g. because of a logout.
      *
+     * @param flowId           Flow ID of the login.
+     * @param discovery        Discovery response.
      * @param completionIntent CompletionIntent.
      * @param cancelIntent     CancelIntent.
      */
-    private void authorizeRequest(PendingIntent completionIntent, PendingIntent cancelIntent) {
+    private void authorizeRequest(final long flowId, final OAuthDiscoveryResponse discovery,
+            PendingIntent completionIntent, PendingIntent cancelIntent) {
+
+        PreparedAuthorization prepared = mPreparedAuthorization.getAndSet(null);
+        boolean promptLogin = mPendingBrowserLogoutUri.get() != null;
+        if (prepared == null || !prepared.matches(discovery, promptLogin)) {
+            prepared = prepareAuthorization(discovery);
+        }
+        final AuthState authState = new AuthState(prepared.mRequest.configuration);
+        if (transition(current -> current.isIn(SessionState.Phase.DISCOVERING, flowId)
+                ? current.authorizing(authState, discovery,
+                        buildLogoutUri(discovery, current.getTokenResponse()))
+                : null) == null) {
+            Log.d(LOG_TAG, "Session changed during discovery, authorization request dropped");
+            return;
+        }
+        persistSession();
+        getAuthorizationService()
+                .performAuthorizationRequest(prepared.mRequest, completionIntent, cancelIntent,
+                        prepared.mTabIntent);
+        Log.d(LOG_TAG, "Handling authorization request for service provider :" + mConfigManager
+                .getClientId());
+    }
+
+    /**
+     * Builds an authorization request and a Custom Tab intent whose session has been told that
+     * the request URI may be launched, so that the browser can start loading it.
+     *
+     * @param discovery Discovery response.
+     * @return Prepared authorization request.
+     */
+    private PreparedAuthorization prepareAuthorization(OAuthDiscoveryResponse discovery) {
+
+        AuthorizationServiceConfiguration serviceConfiguration =
+                new AuthorizationServiceConfiguration(discovery.getAuthorizationEndpoint(),
+                        discovery.getTokenEndpoint());
+        AuthorizationRequest.Builder builder = new AuthorizationRequest.Builder(
+                serviceConfiguration, mConfigManager.getClientId(), ResponseTypeValues.CODE,
+                mConfigManager.getRedirectUri());
+        builder.setScopes(mConfigManager.getScope());
+        // Binds the ID token to this request, so a token replayed from another login is refused.
+        builder.setAdditionalParameters(
+                Collections.singletonMap(Constants.NONCE, generateNonce()));
+        if (mPendingBrowserLogoutUri.get() != null) {
+            // The previous user's browser session has not been ended yet, do not let the
+            // identity server sign the next user in with it.
+            builder.setPrompt(AuthorizationRequest.Prompt.LOGIN);
+        }
+        AuthorizationRequest request = builder.build();
+        CustomTabsIntent tabIntent = getAuthorizationService()
+                .createCustomTabsIntentBuilder(request.toUri()).build();
+        return new PreparedAuthorization(request, tabIntent);
+    }
+
+    private static String generateNonce() {
+
+        byte[] nonce = new byte[NONCE_BYTES];
+        NONCE_RANDOM.nextBytes(nonce);
+        return ByteString.of(nonce).base64Url();
+    }
+
+    /**
+     * Prepares the next authorization request in the background when a discovery response is
+     * available and no user is logged in, so the browser is warm when the user starts to log in.
+     */
+    private void prefetchAuthorization() {
+
+        getScheduler().execute(() -> {
+            SessionState state = mState.get();
+            if (state.hasTokens()) {
+                return;
+            }
+            OAuthDiscoveryResponse discovery = state.getDiscovery();
+            if (discovery == null) {
+                DiscoveryCache.Entry cached = mDiscoveryCache.get();
+                if (cached == null) {
+                    return;
+                }
+                discovery = cached.getDiscovery();
+            }
+            mPreparedAuthorization.set(prepareAuthorization(discovery));
+        });
+    }
+
+    /**
+     * Returns the AuthorizationService shared by all login flows. Creating it binds the Custom
+     * Tabs service, which warms up the browser. It is bound with the application context, so it
+     * keeps no activity alive, and released once the user is logged in.
+     *
+     * @return AuthorizationService.
+     */
+    private synchronized AuthorizationService getAuthorizationService() {
 
-        if (mDiscovery != null) {
-            AuthorizationServiceConfiguration serviceConfiguration = new AuthorizationServiceConfiguration(
-                    mDiscovery.getAuthorizationEndpoint(), mDiscovery.getTokenEndpoint());
+        if (mAuthorizationService == null) {
+            mAuthorizationService = new AuthorizationService(new NewTaskContext(mContext));
+        }
+        return mAuthorizationService;
+    }
 
-            mAuthState = new AuthState(serviceConfiguration);
-            AuthorizationRequest.Builder builder = new AuthorizationRequest.Builder(
-                    serviceConfiguration, mConfigManager.getClientId(), ResponseTypeValues.CODE,
-                    mConfigManager.getRedirectUri());
-            builder.setScopes(mConfigManager.getScope());
-            AuthorizationRequest request = builder.build();
-            mAuthorizationService = new AuthorizationService(mContext);
-            CustomTabsIntent.Builder intentBuilder = mAuthorizationService
-                    .createCustomTabsIntentBuilder(request.toUri());
-            customTabIntent.set(intentBuilder.build());
-            mAuthorizationService
-                    .performAuthorizationRequest(request, completionIntent, cancelIntent,
-                            customTabIntent.get());
-            Log.d(LOG_TAG, "Handling authorization request for service provider :" + mConfigManager
-                    .getClientId());
+    /**
+     * Unbinds the Custom Tabs service, which is only needed until the login completes. The next
+     * login or prefetch binds it again.
+     */
+    private void releaseAuthorizationService() {
+
+        mPreparedAuthorization.set(null);
+        synchronized (this) {
+            if (mAuthorizationService != null) {
+                mAuthorizationService.dispose();
+                mAuthorizationService = null;
+            }
         }
     }
 
@@ -190,12 +703,205 @@ public class LoginService {
      */
     public void handleAuthorization(Intent intent, TokenRequest.TokenRespCallback callback) {
 
+        handleAuthorization(intent, 0, TimeUnit.MILLISECONDS).addCallback(
+                new AuthCallback<OAuth2TokenResponse>() {
+                    @Override
+                    public void onSuccess(OAuth2TokenResponse result) {
+
+                        callback.onTokenRequestCompleted(result);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+
+                        Log.e(LOG_TAG, "Token request failed", error);
+                    }
+                }, SdkScheduler.mainThread());
+    }
+
+    /**
+     * Handle the token request and return its result as a future. Handling the same
+     * authorization response again, e.g. when the activity that received it is restarted, does
+     * not exchange the code a second time: the exchange in flight or its result is returned
+     * instead. The exchange is shared by all callers, so cancelling the future or letting it time
+     * out only stops this caller from waiting; the code is still exchanged and the session
+     * stored. Logging out drops an exchange in flight.
+     *
+     * @param intent  Intent the authorization response was delivered with.
+     * @param timeout Time after which the future fails with a TimeoutException, 0 for none.
+     * @param unit    Unit of the timeout.
+     * @return Future of the token response.
+     */
+    public AuthFuture<OAuth2TokenResponse> handleAuthorization(Intent intent, long timeout,
+            TimeUnit unit) {
+
+        return exchangeCode(intent).withDeadline(Deadline.after(timeout, unit), getScheduler());
+    }
+
+    /**
+     * Exchanges the authorization code of an authorization response for tokens, unless the same
+     * response is already being exchanged or has been. Every caller gets a waiter of its own on
+     * the shared exchange, so no single caller can cancel it for the others. The call to the
+     * token endpoint is not bounded by any caller's deadline, only by the transport's timeouts.
+     *
+     * @param intent Intent the authorization response was delivered with.
+     * @return Future of the token response, without a deadline of its own.
+     */
+    private AuthFuture<OAuth2TokenResponse> exchangeCode(Intent intent) {
+
         AuthorizationResponse response = AuthorizationResponse.fromIntent(intent);
-        mOAuth2TokenResponse = new OAuth2TokenResponse();
-        new TokenRequest(mAuthorizationService, mOAuth2TokenResponse, response, callback).execute();
+        if (response == null) {
+            AuthorizationException exception = AuthorizationException.fromIntent(intent);
+            // The login was cancelled or rejected in the browser.
+            transition(current -> current.getPhase() == SessionState.Phase.AUTHORIZING
+                    ? current.settled() : null);
+            return AuthFuture.failed(exception != null ? exception
+                    : new ClientException("Intent does not contain an authorization response"));
+        }
+        String exchangeKey = response.state != null ? response.state
+                : response.authorizationCode;
+        final AuthFuture<OAuth2TokenResponse> future = new AuthFuture<>();
+        SessionState exchanging;
+        while (true) {
+            SessionState current = mState.get();
+            if (exchangeKey != null && exchangeKey.equals(current.getExchangeKey())) {
+                if (current.getPhase() == SessionState.Phase.EXCHANGING) {
+                    return current.getExchange().newWaiter();
+                }
+                if (current.hasTokens()) {
+                    return AuthFuture.completed(current.getTokenResponse());
+                }
+            }
+            exchanging = current.exchanging(exchangeKey, future);
+            if (mState.compareAndSet(current, exchanging)) {
+                break;
+            }
+        }
+        final long flowId = exchanging.getFlowId();
+        // The AuthState is published with the tokens, so the exchange can update it privately.
+        final AuthState authState = new AuthState(response.request.configuration);
+        authState.update(response, null);
+        future.addCallback(new AuthCallback<OAuth2TokenResponse>() {
+            @Override
+            public void onSuccess(final OAuth2TokenResponse result) {
+
+                if (transition(current -> current.isIn(SessionState.Phase.EXCHANGING, flowId)
+                        ? current.authenticated(authState, result,
+                                buildLogoutUri(current.getDiscovery(), result))
+                        : null) == null) {
+                    Log.w(LOG_TAG, "Session changed during the token exchange, tokens dropped");
+                    return;
+                }
+                swapPendingBrowserLogoutUri(null);
+                releaseAuthorizationService();
+                mConfigManager.acceptConfiguration();
+                mUserInfoCache.clear();
+                persistSession();
+                mTokenRefresher.schedule(result);
+                notifySessionListeners(SessionEvent.Type.LOGGED_IN, mState.get());
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                transition(current -> current.isIn(SessionState.Phase.EXCHANGING, flowId)
+                        ? current.settled() : null);
+            }
+        });
+        getScheduler().execute(new TokenRequest(mHttpTransport, authState, response, future,
+                Deadline.NONE));
         Log.d(LOG_TAG,
                 "Handling token request for service provider :" + mConfigManager.getClientId());
+        return future.newWaiter();
+    }
+
+    /**
+     * Completes a login in one background pipeline: the authorization code is exchanged for
+     * tokens, the ID token is decoded and the userinfo endpoint is called right after, on the
+     * thread that received the tokens. The session is stored as soon as the tokens arrive, so
+     * when only the userinfo call fails, the user is still logged in.
+     *
+     * @param intent  Intent the authorization response was delivered with.
+     * @param timeout Time budget of the whole login, 0 for none. The userinfo call gets what is
+     *                left of it after the token exchange, and the future fails with a
+     *                TimeoutException once it is used up.
+     * @param unit    Unit of the timeout.
+     * @return Future of the login result.
+     */
+    public AuthFuture<LoginResult> completeLogin(Intent intent, long timeout, TimeUnit unit) {
+
+        final Deadline deadline = Deadline.after(timeout, unit);
+        final AuthFuture<LoginResult> result = new AuthFuture<>();
+        final AuthFuture<OAuth2TokenResponse> exchange = exchangeCode(intent);
+        result.setCancelAction(() -> exchange.cancel(true));
+        exchange.addCallback(new AuthCallback<OAuth2TokenResponse>() {
+            @Override
+            public void onSuccess(final OAuth2TokenResponse tokenResponse) {
+
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    // The exchange was already done, keep the userinfo call off the main thread.
+                    getScheduler().execute(() -> finishLogin(tokenResponse, result, deadline));
+                } else {
+                    finishLogin(tokenResponse, result, deadline);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
 
+                result.fail(error);
+            }
+        });
+        return result.withDeadline(deadline, getScheduler());
+    }
+
+    /**
+     * Completes a login in one background pipeline.
+     *
+     * @param intent   Intent the authorization response was delivered with.
+     * @param callback Callback, called on the main thread.
+     */
+    public void completeLogin(Intent intent, @NonNull AuthCallback<LoginResult> callback) {
+
+        completeLogin(intent, 0, TimeUnit.MILLISECONDS)
+                .addCallback(callback, SdkScheduler.mainThread());
+    }
+
+    /**
+     * Decodes the ID token and fetches the userinfo response for freshly issued tokens.
+     *
+     * @param tokenResponse Token response.
+     * @param result        Future of the login result.
+     * @param deadline      Deadline of the login, bounding the userinfo call.
+     */
+    private void finishLogin(final OAuth2TokenResponse tokenResponse,
+            final AuthFuture<LoginResult> result, Deadline deadline) {
+
+        if (result.isDone()) {
+            return;
+        }
+        final Jwt idToken = tokenResponse.getDecodedIdToken();
+        OAuthDiscoveryResponse discovery = mState.get().getDiscovery();
+        if (discovery == null || discovery.getUserInfoEndpoint() == null) {
+            result.complete(new LoginResult(tokenResponse, idToken, null));
+            return;
+        }
+        final AuthFuture<UserInfoResponse> userInfo = fetchUserInfo(discovery,
+                tokenResponse.getAccessToken(), false, deadline);
+        result.setCancelAction(() -> userInfo.cancel(true));
+        userInfo.addCallback(new AuthCallback<UserInfoResponse>() {
+            @Override
+            public void onSuccess(UserInfoResponse response) {
+
+                result.complete(new LoginResult(tokenResponse, idToken, response));
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                result.fail(error);
+            }
+        });
     }
 
     /**
@@ -205,55 +911,622 @@ public class LoginService {
      */
     public void logout(Context context) {
 
-        Map<String, String> paramMap = new HashMap<>();
-        paramMap.put(Constants.ID_TOKEN_HINT, mOAuth2TokenResponse.getIdToken());
-        paramMap.put(Constants.POST_LOGOUT_REDIRECT_URI,
-                mConfigManager.getRedirectUri().toString());
-        try {
-            String url = Util
-                    .buildURLWithQueryParams(mDiscovery.getLogoutEndpoint().toString(), paramMap);
-            Log.d(LOG_TAG, "Handling logout request for service provider :" + mConfigManager
-                    .getClientId());
-            CustomTabsIntent.Builder builder = new CustomTabsIntent.Builder();
-            CustomTabsIntent customTabsIntent = builder.build();
-            customTabsIntent.intent.setFlags(
-                    Intent.FLAG_ACTIVITY_NO_HISTORY | Intent.FLAG_ACTIVITY_NEW_TASK
-                            | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-            customTabsIntent.launchUrl(context, Uri.parse(url));
-        } catch (UnsupportedEncodingException e) {
-            Log.e(LOG_TAG, "Error while creating logout request", e);
+        Uri logoutUri = clearSession().getLogoutUri();
+        Uri pendingLogoutUri = swapPendingBrowserLogoutUri(null);
+        if (logoutUri == null) {
+            logoutUri = pendingLogoutUri;
+        }
+        if (logoutUri == null) {
+            Log.w(LOG_TAG, "No session to end at the identity server for service provider :"
+                    + mConfigManager.getClientId());
+            return;
+        }
+        Log.d(LOG_TAG, "Handling logout request for service provider :" + mConfigManager
+                .getClientId());
+        launchLogoutUri(context, logoutUri);
+    }
+
+    private void launchLogoutUri(Context context, Uri logoutUri) {
+
+        CustomTabsIntent.Builder builder = new CustomTabsIntent.Builder();
+        CustomTabsIntent customTabsIntent = builder.build();
+        customTabsIntent.intent.setFlags(
+                Intent.FLAG_ACTIVITY_NO_HISTORY | Intent.FLAG_ACTIVITY_NEW_TASK
+                        | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        customTabsIntent.launchUrl(context, logoutUri);
+    }
+
+    /**
+     * Logs out without opening a browser. The local session is cleared right away and the refresh
+     * and access tokens are revoked at the revocation endpoint on a background thread.
+     *
+     * <p>The session at the identity server, kept in the browser, is not ended by this call.
+     * When deferBrowserLogout is true, its end-session URL is kept so that
+     * {@link #endBrowserSession(Context)} can end it later, for example when the device is idle.
+     * Until then, the next login asks the user to authenticate again instead of reusing that
+     * browser session.</p>
+     *
+     * @param deferBrowserLogout Whether to keep the end-session URL for a later browser logout.
+     * @return Future that completes once the tokens are revoked.
+     */
+    public AuthFuture<Void> logoutWithRevocation(boolean deferBrowserLogout) {
+
+        SessionState session = clearSession();
+        OAuth2TokenResponse tokenResponse = session.getTokenResponse();
+        OAuthDiscoveryResponse discovery = session.getDiscovery();
+        swapPendingBrowserLogoutUri(deferBrowserLogout ? session.getLogoutUri() : null);
+        prefetchAuthorization();
+        if (tokenResponse == null) {
+            return AuthFuture.completed(null);
+        }
+        if (discovery == null || discovery.getRevocationEndpoint() == null) {
+            return AuthFuture.failed(new ClientException("Discovery response does not contain a "
+                    + "revocation_endpoint, tokens were cleared locally only"));
+        }
+        Log.d(LOG_TAG, "Revoking tokens for service provider :" + mConfigManager.getClientId());
+        AuthFuture<Void> future = new AuthFuture<>();
+        getScheduler().execute(new RevocationRequest(mHttpTransport,
+                discovery.getRevocationEndpoint(), mConfigManager.getClientId(),
+                tokenResponse.getRefreshToken(), tokenResponse.getAccessToken(), future));
+        return future;
+    }
+
+    /**
+     * Ends the browser session left behind by {@link #logoutWithRevocation(boolean)}.
+     *
+     * @param context Context.
+     * @return true if a browser logout was pending and has been launched.
+     */
+    public boolean endBrowserSession(Context context) {
+
+        Uri logoutUri = swapPendingBrowserLogoutUri(null);
+        if (logoutUri == null) {
+            return false;
+        }
+        launchLogoutUri(context, logoutUri);
+        return true;
+    }
+
+    /**
+     * Builds the end-session URL of a session. It is built whenever the tokens or the discovery
+     * response of the session change, so that logout only has to launch it.
+     *
+     * @param discovery     Discovery response, may be null.
+     * @param tokenResponse Token response, may be null.
+     * @return End-session URL, or null if there is no session to end.
+     */
+    private Uri buildLogoutUri(OAuthDiscoveryResponse discovery,
+            OAuth2TokenResponse tokenResponse) {
+
+        if (discovery == null || discovery.getLogoutEndpoint() == null
+                || tokenResponse == null) {
+            return null;
         }
+        return Uri.parse(new UrlBuilder(discovery.getLogoutEndpoint().toString())
+                .appendQueryParameter(Constants.ID_TOKEN_HINT, tokenResponse.getIdToken())
+                .appendQueryParameter(Constants.POST_LOGOUT_REDIRECT_URI,
+                        mConfigManager.getRedirectUri().toString())
+                .build());
+    }
+
+    /**
+     * Drops the session from memory and from the persistent store.
+     *
+     * @return The snapshot of the dropped session.
+     */
+    private SessionState clearSession() {
+
+        SessionState previous = mState.getAndSet(SessionState.IDLE);
+        mTokenRefresher.stop();
+        mUserInfoCache.clear();
+        persistSession();
+        if (previous.hasTokens()) {
+            notifySessionListeners(SessionEvent.Type.LOGGED_OUT, previous);
+        }
+        return previous;
     }
 
     public OAuth2TokenResponse getTokenResponse() {
 
-        return mOAuth2TokenResponse;
+        return mState.get().getTokenResponse();
+    }
+
+    /**
+     * Returns a consistent snapshot of the login session.
+     *
+     * @return SessionState.
+     */
+    @NonNull
+    public SessionState getSessionState() {
+
+        return mState.get();
+    }
+
+    String getClientId() {
+
+        return mConfigManager.getClientId();
+    }
+
+    /**
+     * Returns a valid access token for an outgoing request. When the cached token is still
+     * valid the returned future is already complete, so the fast path neither blocks nor
+     * switches threads. Otherwise the caller waits for a refresh, and all callers arriving
+     * while it is in flight are released together when it completes.
+     *
+     * @return Future of the access token.
+     */
+    public AuthFuture<String> withFreshAccessToken() {
+
+        OAuth2TokenResponse tokenResponse = mState.get().getTokenResponse();
+        if (tokenResponse == null) {
+            return AuthFuture.failed(new ClientException("User is not logged in"));
+        }
+        if (!tokenResponse.isAccessTokenExpired(ACCESS_TOKEN_EXPIRY_TOLERANCE_MILLIS)) {
+            return AuthFuture.completed(tokenResponse.getAccessToken());
+        }
+        return mTokenRefresher.refresh().newWaiter().then(
+                new AuthFuture.Continuation<OAuth2TokenResponse, String>() {
+                    @Override
+                    public AuthFuture<String> then(OAuth2TokenResponse result) {
+
+                        return AuthFuture.completed(result.getAccessToken());
+                    }
+                });
+    }
+
+    /**
+     * Passes a valid access token to the callback, refreshing the token first if needed.
+     *
+     * @param callback Callback receiving the access token.
+     */
+    public void withFreshAccessToken(@NonNull AuthCallback<String> callback) {
+
+        withFreshAccessToken().addCallback(callback);
+    }
+
+    /**
+     * Validates the signature and claims of the current ID token locally, against the signing
+     * keys published at the jwks_uri of the identity server. The keys are cached across restarts
+     * and fetched again only when the token is signed with an unknown key, so once they are
+     * cached the validation runs on the calling thread without any network call.
+     *
+     * @return Future of the validated ID token.
+     */
+    public AuthFuture<Jwt> validateIdToken() {
+
+        SessionState state = mState.get();
+        OAuth2TokenResponse tokenResponse = state.getTokenResponse();
+        OAuthDiscoveryResponse discovery = state.getDiscovery();
+        if (tokenResponse == null || discovery == null) {
+            return AuthFuture.failed(new ClientException("User is not logged in"));
+        }
+        Jwt idToken = tokenResponse.getDecodedIdToken();
+        if (idToken == null) {
+            return AuthFuture.failed(new ClientException("Token response does not contain a "
+                    + "valid ID token"));
+        }
+        AuthState authState = state.getAuthState();
+        AuthorizationResponse login = authState != null
+                ? authState.getLastAuthorizationResponse() : null;
+        String nonce = login != null ? login.request.additionalParameters.get(Constants.NONCE)
+                : null;
+        return mIdTokenValidator.validate(idToken, discovery, mConfigManager.getClientId(), nonce,
+                mHttpTransport, getScheduler());
+    }
+
+    /**
+     * Refreshes the access token with the refresh token. The SDK already refreshes the token
+     * ahead of its expiry, so this is only needed when the token was rejected early. Concurrent
+     * calls share one request to the token endpoint, and cancelling the returned future does not
+     * abort it for the other callers.
+     *
+     * @return Future of the refreshed token response.
+     */
+    public AuthFuture<OAuth2TokenResponse> refreshAccessToken() {
+
+        return mTokenRefresher.refresh().newWaiter();
+    }
+
+    /**
+     * Sets how long before the access token expires the SDK refreshes it. Defaults to 60
+     * seconds.
+     *
+     * @param margin Margin.
+     * @param unit   Unit of the margin.
+     */
+    public void setTokenRefreshMargin(long margin, TimeUnit unit) {
+
+        mTokenRefresher.setRefreshMargin(unit.toMillis(margin));
+        scheduleTokenRefresh();
+    }
+
+    /**
+     * Moves a logged in session to the refreshing phase.
+     *
+     * @return The refreshing snapshot, or null if no user is logged in with a refresh token.
+     */
+    SessionState beginRefresh() {
+
+        return transition(current -> current.getPhase() == SessionState.Phase.AUTHENTICATED
+                && current.getTokenResponse().getRefreshToken() != null
+                && current.getDiscovery() != null ? current.refreshing() : null);
+    }
+
+    /**
+     * Stores the refreshed tokens, unless the session changed while they were requested.
+     *
+     * @param refreshing      Snapshot returned by {@link #beginRefresh()}.
+     * @param tokenResponse   Refreshed token response.
+     * @param appAuthResponse Token response as returned by AppAuth.
+     * @return true if the tokens were stored.
+     */
+    boolean completeRefresh(SessionState refreshing, final OAuth2TokenResponse tokenResponse,
+            TokenResponse appAuthResponse) {
+
+        final long flowId = refreshing.getFlowId();
+        final AuthState authState = copyAuthState(refreshing.getAuthState());
+        if (authState != null) {
+            authState.update(appAuthResponse, null);
+        }
+        SessionState refreshed = transition(current ->
+                current.isIn(SessionState.Phase.REFRESHING, flowId)
+                        ? current.authenticated(authState, tokenResponse,
+                                buildLogoutUri(current.getDiscovery(), tokenResponse))
+                        : null);
+        if (refreshed == null) {
+            return false;
+        }
+        Log.d(LOG_TAG, "Access token refreshed for service provider :" + mConfigManager
+                .getClientId());
+        mUserInfoCache.clear();
+        persistSession();
+        notifySessionListeners(SessionEvent.Type.TOKEN_REFRESHED, refreshed);
+        return true;
+    }
+
+    /**
+     * Returns a refreshing session to the logged in phase after the refresh failed.
+     *
+     * @param refreshing Snapshot returned by {@link #beginRefresh()}.
+     */
+    void abortRefresh(SessionState refreshing) {
+
+        final long flowId = refreshing.getFlowId();
+        SessionState settled = transition(current ->
+                current.isIn(SessionState.Phase.REFRESHING, flowId) ? current.settled() : null);
+        if (settled != null && settled.getTokenResponse().isAccessTokenExpired(0)) {
+            notifySessionListeners(SessionEvent.Type.TOKEN_EXPIRED, settled);
+        }
+    }
+
+    /**
+     * Called when an access token that cannot be refreshed has expired.
+     *
+     * @param tokenResponse Token response holding the expired access token.
+     */
+    void onAccessTokenExpired(OAuth2TokenResponse tokenResponse) {
+
+        SessionState state = mState.get();
+        if (state.getTokenResponse() == tokenResponse) {
+            notifySessionListeners(SessionEvent.Type.TOKEN_EXPIRED, state);
+        }
+    }
+
+    /**
+     * Registers a listener for the changes of the login session. If the current session was
+     * created with a different configuration, the listener is told so soon after with a
+     * {@link SessionEvent.Type#CONFIGURATION_CHANGED} event. That check may read the shared
+     * preferences, so it is done in the background rather than on the calling thread.
+     *
+     * @param listener Listener.
+     * @param executor Executor the listener is called on. Events are delivered in order when the
+     *                 executor runs its tasks in order.
+     */
+    public void addSessionListener(@NonNull SessionListener listener,
+            @NonNull Executor executor) {
+
+        final ListenerRegistration registration = new ListenerRegistration(listener, executor);
+        mSessionListeners.add(registration);
+        if (!mState.get().hasTokens()) {
+            return;
+        }
+        getScheduler().execute(() -> {
+            SessionState state = mState.get();
+            if (state.hasTokens() && mSessionListeners.contains(registration)
+                    && mConfigManager.hasConfigurationChanged()) {
+                registration.deliver(new SessionEvent(SessionEvent.Type.CONFIGURATION_CHANGED,
+                        state));
+            }
+        });
+    }
+
+    /**
+     * Registers a listener for the changes of the login session, called on the main thread.
+     *
+     * @param listener Listener.
+     */
+    public void addSessionListener(@NonNull SessionListener listener) {
+
+        addSessionListener(listener, SdkScheduler.mainThread());
+    }
+
+    /**
+     * Unregisters a listener added with {@link #addSessionListener(SessionListener, Executor)}.
+     *
+     * @param listener Listener.
+     */
+    public void removeSessionListener(@NonNull SessionListener listener) {
+
+        for (ListenerRegistration registration : mSessionListeners) {
+            if (registration.mListener == listener) {
+                mSessionListeners.remove(registration);
+            }
+        }
+    }
+
+    private void notifySessionListeners(SessionEvent.Type type, SessionState state) {
+
+        if (mSessionListeners.isEmpty()) {
+            return;
+        }
+        SessionEvent event = new SessionEvent(type, state);
+        for (ListenerRegistration registration : mSessionListeners) {
+            registration.deliver(event);
+        }
+    }
+
+    /**
+     * Copies an AuthState, so that a published snapshot is never modified.
+     */
+    private static AuthState copyAuthState(AuthState authState) {
+
+        if (authState == null) {
+            return null;
+        }
+        try {
+            return AuthState.jsonDeserialize(authState.jsonSerialize());
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Could not copy the auth state", e);
+            return null;
+        }
     }
 
     public void getUserInfo(UserInfoRequest.UserInfoResponseCallback callback) {
 
+        getUserInfo(0, TimeUnit.MILLISECONDS).addCallback(new AuthCallback<UserInfoResponse>() {
+            @Override
+            public void onSuccess(UserInfoResponse result) {
+
+                callback.onUserInfoRequestCompleted(result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                Log.e(LOG_TAG, "Userinfo request failed", error);
+            }
+        });
+    }
+
+    /**
+     * Call the userinfo endpoint and return its result as a future. Cancelling the future aborts
+     * the request to the userinfo endpoint. A cached response is returned without a network call
+     * while it is fresh; a stale one is returned right away and revalidated in the background.
+     *
+     * @param timeout Time after which the future fails with a TimeoutException, 0 for none. The
+     *                timeouts of the call to the userinfo endpoint are bounded by it as well.
+     * @param unit    Unit of the timeout.
+     * @return Future of the userinfo response.
+     */
+    public AuthFuture<UserInfoResponse> getUserInfo(long timeout, TimeUnit unit) {
+
         Log.i(LOG_TAG, "Call userinfo");
-        new UserInfoRequest(mDiscovery, mOAuth2TokenResponse.getAccessToken(), callback).execute();
+        SessionState state = mState.get();
+        OAuthDiscoveryResponse discovery = state.getDiscovery();
+        OAuth2TokenResponse tokenResponse = state.getTokenResponse();
+        if (discovery == null || tokenResponse == null) {
+            return AuthFuture.failed(new ClientException("User is not logged in"));
+        }
+        String accessToken = tokenResponse.getAccessToken();
+        UserInfoCache.Entry cached = mUserInfoCache.get(accessToken);
+        if (cached != null && cached.isFresh()) {
+            return AuthFuture.completed(cached.getResponse());
+        }
+        Deadline deadline = Deadline.after(timeout, unit);
+        AuthFuture<UserInfoResponse> future = fetchUserInfo(discovery, accessToken, true,
+                deadline);
+        if (cached != null && cached.isUsableWhileRevalidating()) {
+            return AuthFuture.completed(cached.getResponse());
+        }
+        return future.withDeadline(deadline, getScheduler());
     }
 
     /**
-     * Dispose the authorization service.
+     * Calls the userinfo endpoint, attaching to the call in flight if another caller already
+     * started one with the same access token.
+     *
+     * @param discovery   Discovery response.
+     * @param accessToken Access token.
+     * @param async       Whether to make the call on the scheduler rather than on the calling
+     *                    thread.
+     * @param deadline    Deadline bounding the timeouts of the call, if this caller starts it.
+     * @return Waiter future for this caller.
+     */
+    private AuthFuture<UserInfoResponse> fetchUserInfo(final OAuthDiscoveryResponse discovery,
+            final String accessToken, final boolean async, final Deadline deadline) {
+
+        return mUserInfoFlights.join(accessToken, new SingleFlight.Starter<UserInfoResponse>() {
+            @Override
+            public void start(AuthFuture<UserInfoResponse> future) {
+
+                UserInfoRequest request = new UserInfoRequest(mHttpTransport, discovery,
+                        accessToken, mUserInfoCache, future, deadline);
+                if (async) {
+                    getScheduler().execute(request);
+                } else {
+                    request.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets how long userinfo responses are cached. Within the time to live a response is served
+     * from memory; within the following stale window it is served while being revalidated.
+     * Defaults to 5 minutes and 1 hour. A time to live of 0 disables the cache.
+     *
+     * @param ttl                  Time to live.
+     * @param staleWhileRevalidate Stale window.
+     * @param unit                 Unit of both durations.
+     */
+    public void setUserInfoCacheTtl(long ttl, long staleWhileRevalidate, TimeUnit unit) {
+
+        mUserInfoCache.setTtl(unit.toMillis(ttl), unit.toMillis(staleWhileRevalidate));
+    }
+
+    /**
+     * Dispose the authorization service and stop the background threads of the SDK. The service
+     * stays usable: the next call that needs a background thread starts them again, and also
+     * schedules the token refresh again if the user is still logged in.
      */
     public void dispose() {
 
-        if (mAuthorizationService != null) {
-            mAuthorizationService.dispose();
+        mTokenRefresher.stop();
+        releaseAuthorizationService();
+        synchronized (this) {
+            mRefreshStopped = true;
+            if (mScheduler != null) {
+                mScheduler.shutdown();
+                mScheduler = null;
+            }
         }
     }
 
     /**
-     * Returns whether the user is logged in or not.
+     * Returns whether the user is logged in or not. The first call reads the stored configuration
+     * hash from the shared preferences, which {@link #initialize(Context)} does in the
+     * background. Called before the initialization completes, it reads them on the calling
+     * thread.
      *
      * @return true if the user is logged in, else returns false.
      */
     public boolean isUserLoggedIn() {
 
-        return mAuthState.isAuthorized() && !mConfigManager.hasConfigurationChanged()
-                && mAuthState.getAuthorizationServiceConfiguration() != null;
+        SessionState state = mState.get();
+        AuthState authState = state.getAuthState();
+        return state.hasTokens() && authState != null && authState.isAuthorized()
+                && !mConfigManager.hasConfigurationChanged()
+                && authState.getAuthorizationServiceConfiguration() != null;
+    }
+
+    /**
+     * Gives the token refresher access to the session without making these methods public.
+     */
+    private final class RefreshHost implements TokenRefresher.Host {
+
+        @Override
+        public SdkScheduler getScheduler() {
+
+            return LoginService.this.getScheduler();
+        }
+
+        @Override
+        public HttpTransport getHttpTransport() {
+
+            return LoginService.this.getHttpTransport();
+        }
+
+        @Override
+        public String getClientId() {
+
+            return LoginService.this.getClientId();
+        }
+
+        @Override
+        public SessionState beginRefresh() {
+
+            return LoginService.this.beginRefresh();
+        }
+
+        @Override
+        public boolean completeRefresh(SessionState refreshing,
+                OAuth2TokenResponse tokenResponse, TokenResponse appAuthResponse) {
+
+            return LoginService.this.completeRefresh(refreshing, tokenResponse, appAuthResponse);
+        }
+
+        @Override
+        public void abortRefresh(SessionState refreshing) {
+
+            LoginService.this.abortRefresh(refreshing);
+        }
+
+        @Override
+        public void onAccessTokenExpired(OAuth2TokenResponse tokenResponse) {
+
+            LoginService.this.onAccessTokenExpired(tokenResponse);
+        }
+    }
+
+    /**
+     * Application context for AppAuth, which launches its activity with the context it was
+     * created with. Outside of an activity that needs {@link Intent#FLAG_ACTIVITY_NEW_TASK}.
+     */
+    private static final class NewTaskContext extends ContextWrapper {
+
+        NewTaskContext(Context base) {
+
+            super(base);
+        }
+
+        @Override
+        public void startActivity(Intent intent) {
+
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            super.startActivity(intent);
+        }
+    }
+
+    /**
+     * A session listener together with the executor it is called on.
+     */
+    private static final class ListenerRegistration {
+
+        private final SessionListener mListener;
+        private final Executor mExecutor;
+
+        ListenerRegistration(SessionListener listener, Executor executor) {
+
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        void deliver(final SessionEvent event) {
+
+            mExecutor.execute(() -> mListener.onSessionEvent(event));
+        }
+    }
+
+    /**
+     * An authorization request together with the Custom Tab intent prepared for it.
+     */
+    private static final class PreparedAuthorization {
+
+        private final AuthorizationRequest mRequest;
+        private final CustomTabsIntent mTabIntent;
+
+        PreparedAuthorization(AuthorizationRequest request, CustomTabsIntent tabIntent) {
+
+            mRequest = request;
+            mTabIntent = tabIntent;
+        }
+
+        boolean matches(OAuthDiscoveryResponse discovery, boolean promptLogin) {
+
+            return mRequest.configuration.authorizationEndpoint
+                    .equals(discovery.getAuthorizationEndpoint())
+                    && mRequest.configuration.tokenEndpoint.equals(discovery.getTokenEndpoint())
+                    && promptLogin == (mRequest.prompt != null);
+        }
     }
 }
@@ -28,16 +28,23 @@ public class OAuth2TokenResponse {
     private Long accessTokenExpirationTime;
     private String idToken;
     private String refreshToken;
+    // Decoded tokens, or NOT_A_JWT once a token was found not to be one, so it is not decoded
+    // again on every expiry check.
+    private volatile Object decodedIdToken;
+    private volatile Object decodedAccessToken;
+    private static final Object NOT_A_JWT = new Object();
 
     public OAuth2TokenResponse() {
     }
 
     public void setIdToken(String idToken) {
         this.idToken = idToken;
+        this.decodedIdToken = null;
     }
 
     public void setAccessToken(String accessToken) {
         this.accessToken = accessToken;
+        this.decodedAccessToken = null;
     }
 
     public void setRefreshToken(String refreshToken) {
@@ -71,4 +78,79 @@ public class OAuth2TokenResponse {
     public String getRefreshToken() {
         return refreshToken;
     }
+
+    /**
+     * Returns the decoded ID token. The token is decoded on first access only, also if it
+     * turns out not to be a JWT.
+     *
+     * @return Decoded ID token, or null if there is no ID token or it is not a JWT.
+     */
+    public Jwt getDecodedIdToken() {
+        Object decoded = decodedIdToken;
+        if (decoded == null) {
+            decoded = decode(idToken);
+            decodedIdToken = decoded;
+        }
+        return decoded == NOT_A_JWT ? null : (Jwt) decoded;
+    }
+
+    /**
+     * Returns the decoded access token, for servers issuing JWT access tokens. The token is
+     * decoded on first access only, so an opaque token is not parsed again on each call.
+     *
+     * @return Decoded access token, or null if the access token is opaque.
+     */
+    public Jwt getDecodedAccessToken() {
+        Object decoded = decodedAccessToken;
+        if (decoded == null) {
+            decoded = decode(accessToken);
+            decodedAccessToken = decoded;
+        }
+        return decoded == NOT_A_JWT ? null : (Jwt) decoded;
+    }
+
+    private static Object decode(String token) {
+        Jwt decoded = Jwt.decodeOrNull(token);
+        return decoded != null ? decoded : NOT_A_JWT;
+    }
+
+    /**
+     * Returns the subject of the ID token, without calling the userinfo endpoint.
+     *
+     * @return Subject, or null if there is no decodable ID token.
+     */
+    public String getSubject() {
+        Jwt decoded = getDecodedIdToken();
+        return decoded == null ? null : decoded.getSubject();
+    }
+
+    /**
+     * Returns the expiration time of the ID token.
+     *
+     * @return Milliseconds since epoch, or 0 if there is no decodable ID token.
+     */
+    public long getIdTokenExpirationTime() {
+        Jwt decoded = getDecodedIdToken();
+        return decoded == null ? 0 : decoded.getExpiresAt();
+    }
+
+    /**
+     * Returns whether the access token is expired or expires within the given margin. When the
+     * token response carried no expiry, the exp claim of a JWT access token is used; a token
+     * without any expiration time is treated as valid.
+     *
+     * @param marginMillis Margin in milliseconds.
+     * @return true if the access token should not be used any more.
+     */
+    public boolean isAccessTokenExpired(long marginMillis) {
+        Long expirationTime = accessTokenExpirationTime;
+        if (expirationTime == null) {
+            Jwt decoded = getDecodedAccessToken();
+            if (decoded != null && decoded.getExpiresAt() > 0) {
+                expirationTime = decoded.getExpiresAt();
+            }
+        }
+        return accessToken == null || expirationTime != null
+                && System.currentTimeMillis() + marginMillis >= expirationTime;
+    }
 }
@@ -19,22 +19,211 @@
 package org.oidc.agent.sso;
 
 import android.net.Uri;
-import android.util.Log;
+import android.text.TextUtils;
+import android.util.JsonReader;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.oidc.agent.exception.ServerException;
 import org.oidc.agent.util.Constants;
+import org.oidc.agent.util.JsonStreams;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * This class stores the discovery response.
+ * This class stores the discovery response. The response is parsed and validated once, when it
+ * is received; instances are immutable.
  */
-public class OAuthDiscoveryResponse {
+public final class OAuthDiscoveryResponse {
+
+    private static final Set<String> STRING_FIELDS = new HashSet<>(Arrays.asList(
+            Constants.ISSUER, Constants.AUTHORIZATION_ENDPOINT, Constants.TOKEN_ENDPOINT,
+            Constants.JWKS_URI, Constants.USERINFO_ENDPOINT, Constants.LOGOUT_ENDPOINT,
+            Constants.REVOCATION_ENDPOINT));
+    private static final Set<String> LIST_FIELDS = new HashSet<>(Arrays.asList(
+            Constants.SCOPES_SUPPORTED, Constants.RESPONSE_TYPES_SUPPORTED,
+            Constants.GRANT_TYPES_SUPPORTED, Constants.ID_TOKEN_SIGNING_ALG_VALUES_SUPPORTED));
+
+    private final String mIssuer;
+    private final Uri mAuthorizationEndpoint;
+    private final Uri mTokenEndpoint;
+    private final Uri mUserInfoEndpoint;
+    private final Uri mLogoutEndpoint;
+    private final Uri mRevocationEndpoint;
+    private final Uri mJwksUri;
+    private final List<String> mScopesSupported;
+    private final List<String> mResponseTypesSupported;
+    private final List<String> mGrantTypesSupported;
+    private final List<String> mIdTokenSigningAlgValuesSupported;
+
+    private OAuthDiscoveryResponse(Map<String, Object> fields) throws ServerException {
+
+        mIssuer = getRequiredString(fields, Constants.ISSUER);
+        mAuthorizationEndpoint = getUri(fields, Constants.AUTHORIZATION_ENDPOINT, true);
+        mTokenEndpoint = getUri(fields, Constants.TOKEN_ENDPOINT, true);
+        mJwksUri = getUri(fields, Constants.JWKS_URI, false);
+        mUserInfoEndpoint = getUri(fields, Constants.USERINFO_ENDPOINT, false);
+        mLogoutEndpoint = getUri(fields, Constants.LOGOUT_ENDPOINT, false);
+        mRevocationEndpoint = getUri(fields, Constants.REVOCATION_ENDPOINT, false);
+        mScopesSupported = getStringList(fields, Constants.SCOPES_SUPPORTED);
+        mResponseTypesSupported = getStringList(fields, Constants.RESPONSE_TYPES_SUPPORTED);
+        mGrantTypesSupported = getStringList(fields, Constants.GRANT_TYPES_SUPPORTED);
+        mIdTokenSigningAlgValuesSupported = getStringList(fields,
+                Constants.ID_TOKEN_SIGNING_ALG_VALUES_SUPPORTED);
+    }
+
+    private OAuthDiscoveryResponse(OAuthDiscoveryResponse parsed) {
 
-    private JSONObject mDiscoveryResponse;
-    static final String LOG_TAG = "OAuthDiscoveryResponse";
+        mIssuer = parsed.mIssuer;
+        mAuthorizationEndpoint = parsed.mAuthorizationEndpoint;
+        mTokenEndpoint = parsed.mTokenEndpoint;
+        mUserInfoEndpoint = parsed.mUserInfoEndpoint;
+        mLogoutEndpoint = parsed.mLogoutEndpoint;
+        mRevocationEndpoint = parsed.mRevocationEndpoint;
+        mJwksUri = parsed.mJwksUri;
+        mScopesSupported = parsed.mScopesSupported;
+        mResponseTypesSupported = parsed.mResponseTypesSupported;
+        mGrantTypesSupported = parsed.mGrantTypesSupported;
+        mIdTokenSigningAlgValuesSupported = parsed.mIdTokenSigningAlgValuesSupported;
+    }
 
+    /**
+     * Creates the discovery response from the given JSON object.
+     *
+     * @param discoveryResponse Discovery response.
+     * @throws IllegalArgumentException If required metadata is missing or malformed.
+     * @deprecated Use {@link #fromJson(JSONObject)}, which reports invalid metadata with a
+     * {@link ServerException}.
+     */
+    @Deprecated
     public OAuthDiscoveryResponse(JSONObject discoveryResponse) {
 
-        mDiscoveryResponse = discoveryResponse;
+        this(fromJsonUnchecked(discoveryResponse));
+    }
+
+    private static OAuthDiscoveryResponse fromJsonUnchecked(JSONObject json) {
+
+        try {
+            return fromJson(json);
+        } catch (ServerException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses and validates a discovery response.
+     *
+     * @param json Discovery response.
+     * @return OAuthDiscoveryResponse.
+     * @throws ServerException If required metadata is missing or malformed.
+     */
+    public static OAuthDiscoveryResponse fromJson(@NonNull JSONObject json)
+            throws ServerException {
+
+        Map<String, Object> fields = new HashMap<>();
+        for (String name : STRING_FIELDS) {
+            String value = json.optString(name, null);
+            if (value != null) {
+                fields.put(name, value);
+            }
+        }
+        for (String name : LIST_FIELDS) {
+            JSONArray values = json.optJSONArray(name);
+            if (values != null) {
+                List<String> list = new ArrayList<>(values.length());
+                for (int i = 0; i < values.length(); i++) {
+                    list.add(values.optString(i));
+                }
+                fields.put(name, Collections.unmodifiableList(list));
+            }
+        }
+        return new OAuthDiscoveryResponse(fields);
+    }
+
+    /**
+     * Parses and validates a discovery response from a stream. Only the metadata this class
+     * exposes is read, all other members are skipped without being materialized.
+     *
+     * @param reader JsonReader positioned before the discovery document.
+     * @return OAuthDiscoveryResponse.
+     * @throws IOException     If the stream could not be read or is not valid JSON.
+     * @throws ServerException If the document is not an object or required metadata is missing.
+     */
+    static OAuthDiscoveryResponse parse(@NonNull JsonReader reader)
+            throws IOException, ServerException {
+
+        Map<String, Object> fields = new HashMap<>();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (STRING_FIELDS.contains(name)) {
+                    String value = JsonStreams.readStringOrSkip(reader);
+                    if (value != null) {
+                        fields.put(name, value);
+                    }
+                } else if (LIST_FIELDS.contains(name)) {
+                    fields.put(name, JsonStreams.readStringList(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new ServerException("Discovery response is not a JSON object. ", e);
+        }
+        return new OAuthDiscoveryResponse(fields);
+    }
+
+    /**
+     * Returns the discovery response as JSON, for persisting it.
+     *
+     * @return Discovery response.
+     */
+    JSONObject toJson() {
+
+        JSONObject json = new JSONObject();
+        try {
+            json.put(Constants.ISSUER, mIssuer);
+            putUri(json, Constants.AUTHORIZATION_ENDPOINT, mAuthorizationEndpoint);
+            putUri(json, Constants.TOKEN_ENDPOINT, mTokenEndpoint);
+            putUri(json, Constants.JWKS_URI, mJwksUri);
+            putUri(json, Constants.USERINFO_ENDPOINT, mUserInfoEndpoint);
+            putUri(json, Constants.LOGOUT_ENDPOINT, mLogoutEndpoint);
+            putUri(json, Constants.REVOCATION_ENDPOINT, mRevocationEndpoint);
+            json.put(Constants.SCOPES_SUPPORTED, new JSONArray(mScopesSupported));
+            json.put(Constants.RESPONSE_TYPES_SUPPORTED, new JSONArray(mResponseTypesSupported));
+            json.put(Constants.GRANT_TYPES_SUPPORTED, new JSONArray(mGrantTypesSupported));
+            json.put(Constants.ID_TOKEN_SIGNING_ALG_VALUES_SUPPORTED,
+                    new JSONArray(mIdTokenSigningAlgValuesSupported));
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which are never put here.
+            throw new IllegalStateException(e);
+        }
+        return json;
+    }
+
+    /**
+     * Get the issuer identifier from discovery object.
+     *
+     * @return Issuer
+     */
+    @NonNull
+    public String getIssuer() {
+
+        return mIssuer;
     }
 
     /**
@@ -42,76 +231,199 @@ public class OAuthDiscoveryResponse {
      *
      * @return Token endpoint
      */
+    @NonNull
     public Uri getTokenEndpoint() {
 
-        Log.i(LOG_TAG, "Get token endpoint");
-        return getRequiredUri(Constants.TOKEN_ENDPOINT);
+        return mTokenEndpoint;
     }
 
     /**
      * Get Authorization Endpoint from discovery object.
      *
-     * @return Token endpoint
+     * @return Authorization endpoint
      */
+    @NonNull
     public Uri getAuthorizationEndpoint() {
 
-        Log.i(LOG_TAG, "Get authorization endpoint");
-        return getRequiredUri(Constants.AUTHORIZATION_ENDPOINT);
+        return mAuthorizationEndpoint;
     }
 
     /**
      * Get Logout Endpoint from discovery object.
      *
-     * @return Token endpoint
+     * @return Logout endpoint, or null if the server does not support RP-initiated logout
      */
+    @Nullable
     public Uri getLogoutEndpoint() {
 
-        Log.d(LOG_TAG, "Get Logout endpoint");
-        return getRequiredUri(Constants.LOGOUT_ENDPOINT);
+        return mLogoutEndpoint;
     }
 
     /**
-     * Get Logout Endpoint from discovery object.
+     * Get UserInfo Endpoint from discovery object.
      *
-     * @return Token endpoint
+     * @return UserInfo endpoint, or null if the server does not advertise one
      */
+    @Nullable
     public Uri getUserInfoEndpoint() {
 
-        Log.d(LOG_TAG, "Get UserInfo endpoint");
-        return getRequiredUri(Constants.USERINFO_ENDPOINT);
+        return mUserInfoEndpoint;
+    }
+
+    /**
+     * Get Revocation Endpoint from discovery object.
+     *
+     * @return Revocation endpoint, or null if the server does not advertise one
+     */
+    @Nullable
+    public Uri getRevocationEndpoint() {
+
+        return mRevocationEndpoint;
+    }
+
+    /**
+     * Get JWKS URI from discovery object.
+     *
+     * @return JWKS URI, or null if the server does not advertise one.
+     */
+    @Nullable
+    public Uri getJwksUri() {
+
+        return mJwksUri;
+    }
+
+    /**
+     * Get the scopes supported by the server.
+     *
+     * @return Scopes, empty if the server does not list them.
+     */
+    @NonNull
+    public List<String> getScopesSupported() {
+
+        return mScopesSupported;
+    }
+
+    /**
+     * Get the response types supported by the server.
+     *
+     * @return Response types, empty if the server does not list them.
+     */
+    @NonNull
+    public List<String> getResponseTypesSupported() {
+
+        return mResponseTypesSupported;
+    }
+
+    /**
+     * Get the grant types supported by the server.
+     *
+     * @return Grant types, empty if the server does not list them.
+     */
+    @NonNull
+    public List<String> getGrantTypesSupported() {
+
+        return mGrantTypesSupported;
+    }
+
+    /**
+     * Get the ID token signing algorithms supported by the server.
+     *
+     * @return Algorithms, empty if the server does not list them.
+     */
+    @NonNull
+    public List<String> getIdTokenSigningAlgValuesSupported() {
+
+        return mIdTokenSigningAlgValuesSupported;
     }
 
     /**
      * Get the required endpoint from discovery object.
      *
-     * @param endpointName Returns the endpoint corresponding to the name.
-     * @return Endpoint URI.
+     * @param endpointName Metadata name of the endpoint, e.g. token_endpoint.
+     * @return Endpoint URI, or null if the endpoint is not advertised or not known.
+     * @deprecated Use the getter of the endpoint, e.g. {@link #getTokenEndpoint()}.
      */
+    @Deprecated
+    @Nullable
     public Uri getRequiredUri(String endpointName) {
 
-        Uri endpoint = null;
-        try {
-            endpoint = Uri.parse(getDiscoveryProperty(endpointName));
-        } catch (Throwable ex) {
-            Log.e(LOG_TAG, endpointName + "could not be parsed ");
+        if (endpointName == null) {
+            return null;
+        }
+        switch (endpointName) {
+            case Constants.AUTHORIZATION_ENDPOINT:
+                return mAuthorizationEndpoint;
+            case Constants.TOKEN_ENDPOINT:
+                return mTokenEndpoint;
+            case Constants.USERINFO_ENDPOINT:
+                return mUserInfoEndpoint;
+            case Constants.LOGOUT_ENDPOINT:
+                return mLogoutEndpoint;
+            case Constants.REVOCATION_ENDPOINT:
+                return mRevocationEndpoint;
+            case Constants.JWKS_URI:
+                return mJwksUri;
+            default:
+                return null;
         }
-        return endpoint;
     }
 
     /**
-     * Returns the property from the discovery object
+     * Returns the property from the discovery object.
      *
-     * @param property Discovery property name
-     * @return Supported Value for that property from discovery object
+     * @param property Discovery property name.
+     * @return The issuer or an endpoint as a string, or null if the property is absent or is
+     * neither of them.
+     * @deprecated Use the typed getters, e.g. {@link #getIssuer()}.
      */
+    @Deprecated
+    @Nullable
     public String getDiscoveryProperty(String property) {
 
-        String discoveryProperty = null;
-        try {
-            discoveryProperty = (String) mDiscoveryResponse.get(property);
-        } catch (JSONException e) {
+        if (Constants.ISSUER.equals(property)) {
+            return mIssuer;
+        }
+        Uri endpoint = getRequiredUri(property);
+        return endpoint != null ? endpoint.toString() : null;
+    }
+
+    private static String getRequiredString(Map<String, Object> fields, String name)
+            throws ServerException {
+
+        String value = (String) fields.get(name);
+        if (TextUtils.isEmpty(value)) {
+            throw new ServerException(name + " is required but missing in the discovery "
+                    + "response");
+        }
+        return value;
+    }
+
+    private static Uri getUri(Map<String, Object> fields, String name, boolean required)
+            throws ServerException {
+
+        String value = required ? getRequiredString(fields, name) : (String) fields.get(name);
+        if (TextUtils.isEmpty(value)) {
+            return null;
+        }
+        Uri uri = Uri.parse(value);
+        if (!uri.isHierarchical() || !uri.isAbsolute()) {
+            throw new ServerException(name + " in the discovery response must be hierarchical "
+                    + "and absolute");
+        }
+        return uri;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> getStringList(Map<String, Object> fields, String name) {
+
+        List<String> values = (List<String>) fields.get(name);
+        return values != null ? values : Collections.<String>emptyList();
+    }
+
+    private static void putUri(JSONObject json, String name, Uri uri) throws JSONException {
 
+        if (uri != null) {
+            json.put(name, uri.toString());
         }
-        return discoveryProperty;
     }
 }
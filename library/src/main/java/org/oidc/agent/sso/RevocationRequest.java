@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.http.HttpCall;
+import org.oidc.agent.http.HttpRequest;
+import org.oidc.agent.http.HttpResponse;
+import org.oidc.agent.http.HttpTransport;
+import org.oidc.agent.util.Constants;
+import org.oidc.agent.util.UrlBuilder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Revokes the refresh token and the access token of a session at the revocation endpoint
+ * (RFC 7009). The endpoint takes one token per request, so both requests are made back to back
+ * on one background task, reusing the same connection.
+ */
+class RevocationRequest implements Runnable {
+
+    private static final String LOG_TAG = "RevocationRequest";
+
+    private final HttpTransport mHttpTransport;
+    private final Uri mRevocationEndpoint;
+    private final String mClientId;
+    private final String mRefreshToken;
+    private final String mAccessToken;
+    private final AuthFuture<Void> mFuture;
+
+    RevocationRequest(HttpTransport httpTransport, Uri revocationEndpoint, String clientId,
+            String refreshToken, String accessToken, AuthFuture<Void> future) {
+
+        mHttpTransport = httpTransport;
+        mRevocationEndpoint = revocationEndpoint;
+        mClientId = clientId;
+        mRefreshToken = refreshToken;
+        mAccessToken = accessToken;
+        mFuture = future;
+    }
+
+    @Override
+    public void run() {
+
+        ServerException failure = null;
+        try {
+            // Revoking the refresh token first ends the grant, most servers revoke the access
+            // tokens issued with it as well.
+            if (mRefreshToken != null) {
+                failure = revoke(mRefreshToken, Constants.REFRESH_TOKEN);
+            }
+            if (mAccessToken != null && !mFuture.isDone()) {
+                ServerException error = revoke(mAccessToken, Constants.ACCESS_TOKEN);
+                if (failure == null) {
+                    failure = error;
+                }
+            }
+        } catch (RuntimeException exception) {
+            // Complete the future even on a bug, or the logout would never finish.
+            Log.e(LOG_TAG, "Token revocation failed unexpectedly", exception);
+            mFuture.fail(exception);
+            return;
+        }
+        if (failure != null) {
+            mFuture.fail(failure);
+        } else {
+            mFuture.complete(null);
+        }
+    }
+
+    private ServerException revoke(String token, String tokenTypeHint) {
+
+        byte[] body = UrlBuilder.formBody()
+                .appendQueryParameter(Constants.TOKEN, token)
+                .appendQueryParameter(Constants.TOKEN_TYPE_HINT, tokenTypeHint)
+                .appendQueryParameter(Constants.CLIENT_ID, mClientId)
+                .buildBytes();
+        HttpRequest request = new HttpRequest.Builder(mRevocationEndpoint.toString())
+                .post(Constants.FORM_URL_ENCODED, body)
+                .setFollowRedirects(false)
+                .build();
+        HttpCall call = mHttpTransport.newCall(request);
+        mFuture.setInFlightCall(call);
+        try (HttpResponse response = call.execute()) {
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Server returns " + response.getCode() + " when revoking the "
+                        + tokenTypeHint);
+                return new ServerException("Server returns " + response.getCode() + " when "
+                        + "revoking the " + tokenTypeHint);
+            }
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error while revoking the " + tokenTypeHint, e);
+            return new ServerException("Error while calling the revocation endpoint. ", e);
+        }
+    }
+}
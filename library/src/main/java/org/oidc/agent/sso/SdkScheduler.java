@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the background work of the SDK. Network calls run on a bounded pool of named I/O threads,
+ * or on an executor provided by the application, and delayed work is timed by a single scheduler
+ * thread that hands it over to the I/O executor when due.
+ */
+class SdkScheduler {
+
+    static final int DEFAULT_MAX_IO_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final String THREAD_NAME_PREFIX = "oidc-sdk-";
+
+    private static Executor sMainThreadExecutor;
+    private static ThreadPoolExecutor sInitExecutor;
+
+    private volatile Executor mIoExecutor;
+    private ThreadPoolExecutor mOwnedIoExecutor;
+    private ScheduledThreadPoolExecutor mTimer;
+
+    /**
+     * Creates a scheduler that owns a pool of at most the given number of I/O threads. Idle
+     * threads are released after a short keep-alive.
+     *
+     * @param maxIoThreads Maximum number of concurrent I/O tasks.
+     */
+    SdkScheduler(int maxIoThreads) {
+
+        mOwnedIoExecutor = new ThreadPoolExecutor(maxIoThreads, maxIoThreads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("io"));
+        mOwnedIoExecutor.allowCoreThreadTimeOut(true);
+        mIoExecutor = mOwnedIoExecutor;
+    }
+
+    /**
+     * Creates a scheduler that runs I/O tasks on the given executor. The executor is not shut
+     * down by {@link #shutdown()}.
+     *
+     * @param ioExecutor Executor provided by the application.
+     */
+    SdkScheduler(@NonNull Executor ioExecutor) {
+
+        mOwnedIoExecutor = null;
+        mIoExecutor = ioExecutor;
+    }
+
+    /**
+     * Runs later I/O tasks on the given executor. The timer is kept, so delayed tasks that are
+     * already scheduled still run, on the new executor. The pool owned by this scheduler, if
+     * any, finishes its queued tasks and stops.
+     *
+     * @param ioExecutor Executor provided by the application.
+     */
+    synchronized void setIoExecutor(@NonNull Executor ioExecutor) {
+
+        mIoExecutor = ioExecutor;
+        if (mOwnedIoExecutor != null) {
+            mOwnedIoExecutor.shutdown();
+            mOwnedIoExecutor = null;
+        }
+    }
+
+    /**
+     * Returns an executor that runs tasks on the main thread.
+     *
+     * @return Main thread executor.
+     */
+    static synchronized Executor mainThread() {
+
+        if (sMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainThreadExecutor = new Executor() {
+                @Override
+                public void execute(@NonNull Runnable command) {
+
+                    handler.post(command);
+                }
+            };
+        }
+        return sMainThreadExecutor;
+    }
+
+    /**
+     * Returns the executor the SDK is initialized on, before any scheduler exists. It runs one
+     * task at a time on a single thread, which is released when idle.
+     *
+     * @return Initialization executor.
+     */
+    static synchronized Executor initThread() {
+
+        if (sInitExecutor == null) {
+            sInitExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("init"));
+            sInitExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sInitExecutor;
+    }
+
+    /**
+     * Runs the task on the I/O executor.
+     *
+     * @param task Task.
+     */
+    void execute(@NonNull Runnable task) {
+
+        mIoExecutor.execute(task);
+    }
+
+    /**
+     * Runs the task on the I/O executor after the given delay.
+     *
+     * @param task  Task.
+     * @param delay Delay.
+     * @param unit  Unit of the delay.
+     * @return Future that can be used to cancel the task before it is due.
+     */
+    ScheduledFuture<?> schedule(@NonNull final Runnable task, long delay, TimeUnit unit) {
+
+        return getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+
+                mIoExecutor.execute(task);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Stops the threads owned by this scheduler. Pending delayed tasks are dropped.
+     */
+    synchronized void shutdown() {
+
+        if (mTimer != null) {
+            mTimer.shutdownNow();
+            mTimer = null;
+        }
+        if (mOwnedIoExecutor != null) {
+            mOwnedIoExecutor.shutdown();
+        }
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getTimer() {
+
+        if (mTimer == null) {
+            mTimer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("timer"));
+            mTimer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            mTimer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            mTimer.allowCoreThreadTimeOut(true);
+        }
+        return mTimer;
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+
+            mName = THREAD_NAME_PREFIX + name + "-";
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+
+            Thread thread = new Thread(runnable, mName + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A change of the login session, delivered to {@link SessionListener}s.
+ */
+public final class SessionEvent {
+
+    /**
+     * The kinds of session changes.
+     */
+    public enum Type {
+        /** The user logged in and the tokens are available. */
+        LOGGED_IN,
+        /** The access token was refreshed. */
+        TOKEN_REFRESHED,
+        /** The access token expired and could not be refreshed. */
+        TOKEN_EXPIRED,
+        /** The user logged out. */
+        LOGGED_OUT,
+        /**
+         * The session was created with a different configuration than the current one, so the
+         * user has to log in again.
+         */
+        CONFIGURATION_CHANGED
+    }
+
+    private final Type mType;
+    private final SessionState mState;
+
+    SessionEvent(Type type, SessionState state) {
+
+        mType = type;
+        mState = state;
+    }
+
+    /**
+     * Returns the kind of the change.
+     *
+     * @return Type.
+     */
+    @NonNull
+    public Type getType() {
+
+        return mType;
+    }
+
+    /**
+     * Returns the session as it was right after the change. For {@link Type#LOGGED_OUT}, this is
+     * the session that ended.
+     *
+     * @return Session snapshot.
+     */
+    @NonNull
+    public SessionState getState() {
+
+        return mState;
+    }
+
+    @Override
+    public String toString() {
+
+        return "SessionEvent{" + mType + ", " + mState.getPhase() + "}";
+    }
+}
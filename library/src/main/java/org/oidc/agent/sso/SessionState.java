@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.AuthState;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable snapshot of the login session. {@link LoginService} replaces the whole snapshot
+ * atomically on every change, so a snapshot read from any thread is always consistent: for
+ * example, it never holds tokens without the discovery response they were obtained with.
+ * The snapshot shares its {@link OAuth2TokenResponse} with the SDK rather than copying it, so
+ * the token response must not be modified.
+ */
+public final class SessionState {
+
+    /**
+     * The phases a session goes through.
+     */
+    public enum Phase {
+        /** No login is in progress and no user is logged in. */
+        IDLE,
+        /** The discovery response is being resolved for a login. */
+        DISCOVERING,
+        /** The authorization request has been launched in the browser. */
+        AUTHORIZING,
+        /** The authorization code is being exchanged for tokens. */
+        EXCHANGING,
+        /** The user is logged in. */
+        AUTHENTICATED,
+        /** The user is logged in and the access token is being refreshed. */
+        REFRESHING
+    }
+
+    static final SessionState IDLE = new SessionState(Phase.IDLE, 0, null, null, null, null,
+            null, null, 0);
+
+    private static final AtomicLong sFlowIds = new AtomicLong();
+
+    private final Phase mPhase;
+    private final long mFlowId;
+    private final AuthState mAuthState;
+    private final OAuthDiscoveryResponse mDiscovery;
+    private final OAuth2TokenResponse mTokenResponse;
+    private final Uri mLogoutUri;
+    private final String mExchangeKey;
+    private final AuthFuture<OAuth2TokenResponse> mExchange;
+    private final long mPhaseStartedAt;
+
+    private SessionState(Phase phase, long flowId, AuthState authState,
+            OAuthDiscoveryResponse discovery, OAuth2TokenResponse tokenResponse, Uri logoutUri,
+            String exchangeKey, AuthFuture<OAuth2TokenResponse> exchange, long phaseStartedAt) {
+
+        mPhase = phase;
+        mFlowId = flowId;
+        mAuthState = authState;
+        mDiscovery = discovery;
+        mTokenResponse = tokenResponse;
+        mLogoutUri = logoutUri;
+        mExchangeKey = exchangeKey;
+        mExchange = exchange;
+        mPhaseStartedAt = phaseStartedAt;
+    }
+
+    /**
+     * Returns the snapshot of a session restored from disk.
+     */
+    static SessionState restored(AuthState authState, OAuthDiscoveryResponse discovery,
+            OAuth2TokenResponse tokenResponse, Uri logoutUri) {
+
+        Phase phase = tokenResponse != null ? Phase.AUTHENTICATED
+                : authState != null ? Phase.AUTHORIZING : Phase.IDLE;
+        return new SessionState(phase, 0, authState, discovery, tokenResponse, logoutUri, null,
+                null, now());
+    }
+
+    /**
+     * Starts a login. The snapshot gets a new flow ID, which the steps of the login use to check
+     * that the session has not been taken over by another operation in the meantime.
+     */
+    SessionState discovering() {
+
+        return new SessionState(Phase.DISCOVERING, sFlowIds.incrementAndGet(), mAuthState,
+                mDiscovery, mTokenResponse, mLogoutUri, mExchangeKey, null, now());
+    }
+
+    SessionState authorizing(AuthState authState, OAuthDiscoveryResponse discovery,
+            Uri logoutUri) {
+
+        return new SessionState(Phase.AUTHORIZING, mFlowId, authState, discovery, mTokenResponse,
+                logoutUri, null, null, now());
+    }
+
+    SessionState exchanging(String exchangeKey, AuthFuture<OAuth2TokenResponse> exchange) {
+
+        return new SessionState(Phase.EXCHANGING, sFlowIds.incrementAndGet(), mAuthState,
+                mDiscovery, mTokenResponse, mLogoutUri, exchangeKey, exchange, now());
+    }
+
+    SessionState authenticated(AuthState authState, OAuth2TokenResponse tokenResponse,
+            Uri logoutUri) {
+
+        return new SessionState(Phase.AUTHENTICATED, mFlowId, authState, mDiscovery,
+                tokenResponse, logoutUri, mExchangeKey, null, now());
+    }
+
+    SessionState refreshing() {
+
+        return new SessionState(Phase.REFRESHING, sFlowIds.incrementAndGet(), mAuthState,
+                mDiscovery, mTokenResponse, mLogoutUri, mExchangeKey, null, now());
+    }
+
+    /**
+     * Returns the phase the session rests in when no operation is in progress: authenticated if
+     * it holds tokens, idle otherwise. Settling a failed exchange drops its key, as the tokens
+     * the session keeps, if any, were not obtained with it.
+     */
+    SessionState settled() {
+
+        String exchangeKey = mPhase == Phase.EXCHANGING ? null : mExchangeKey;
+        return new SessionState(mTokenResponse != null ? Phase.AUTHENTICATED : Phase.IDLE,
+                mFlowId, mAuthState, mDiscovery, mTokenResponse, mLogoutUri, exchangeKey, null,
+                now());
+    }
+
+    SessionState withDiscovery(OAuthDiscoveryResponse discovery, Uri logoutUri) {
+
+        return new SessionState(mPhase, mFlowId, mAuthState, discovery, mTokenResponse,
+                logoutUri, mExchangeKey, mExchange, mPhaseStartedAt);
+    }
+
+    /**
+     * Returns whether the session is in the given phase of the given flow.
+     */
+    boolean isIn(Phase phase, long flowId) {
+
+        return mPhase == phase && mFlowId == flowId;
+    }
+
+    /**
+     * Returns the phase of the session.
+     *
+     * @return Phase.
+     */
+    @NonNull
+    public Phase getPhase() {
+
+        return mPhase;
+    }
+
+    /**
+     * Returns whether the session holds tokens, including while they are being refreshed.
+     *
+     * @return true if the session holds tokens.
+     */
+    public boolean hasTokens() {
+
+        return mTokenResponse != null;
+    }
+
+    /**
+     * Returns the tokens of the session. The token response is shared, not a copy, and must not
+     * be modified.
+     *
+     * @return Token response, or null if the user is not logged in.
+     */
+    @Nullable
+    public OAuth2TokenResponse getTokenResponse() {
+
+        return mTokenResponse;
+    }
+
+    /**
+     * Returns the discovery response the session uses.
+     *
+     * @return Discovery response, or null if it has not been resolved yet.
+     */
+    @Nullable
+    public OAuthDiscoveryResponse getDiscovery() {
+
+        return mDiscovery;
+    }
+
+    AuthState getAuthState() {
+
+        return mAuthState;
+    }
+
+    Uri getLogoutUri() {
+
+        return mLogoutUri;
+    }
+
+    long getFlowId() {
+
+        return mFlowId;
+    }
+
+    /**
+     * Returns the key of the exchange in flight, or of the exchange the tokens were obtained
+     * with.
+     */
+    String getExchangeKey() {
+
+        return mExchangeKey;
+    }
+
+    AuthFuture<OAuth2TokenResponse> getExchange() {
+
+        return mExchange;
+    }
+
+    /**
+     * Returns how long the session has been in its current phase.
+     */
+    long getPhaseAgeMillis() {
+
+        return now() - mPhaseStartedAt;
+    }
+
+    private static long now() {
+
+        return SystemClock.elapsedRealtime();
+    }
+}
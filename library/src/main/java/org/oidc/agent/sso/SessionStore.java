@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import net.openid.appauth.AuthState;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.util.Constants;
+
+/**
+ * Persists the login session in shared preferences so that it survives process death. The
+ * session is stored as a single JSON document holding the AppAuth state, the token response and
+ * a snapshot of the discovery response.
+ * <p>
+ * The tokens are stored in plain text in the app's private preferences file, as
+ * EncryptedSharedPreferences is not available at the SDK's minimum API level.
+ */
+class SessionStore {
+
+    private static final String LOG_TAG = "SessionStore";
+    private static final String KEY_SESSION = "session";
+    private static final String KEY_PENDING_LOGOUT_URI = "pendingLogoutUri";
+    private static final String KEY_AUTH_STATE = "authState";
+    private static final String KEY_DISCOVERY = "discovery";
+    private static final String KEY_TOKEN_RESPONSE = "tokenResponse";
+    private static final String KEY_TOKEN_TYPE = "tokenType";
+    private static final String KEY_ACCESS_TOKEN = "accessToken";
+    private static final String KEY_EXPIRES_AT = "expiresAt";
+    private static final String KEY_ID_TOKEN = "idToken";
+    private static final String KEY_REFRESH_TOKEN = "refreshToken";
+
+    private final SharedPreferences mPrefs;
+
+    SessionStore(Context context) {
+
+        mPrefs = context.getSharedPreferences(Constants.SESSION_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Reads the persisted session.
+     *
+     * @return Session or null if none is stored or it cannot be read.
+     */
+    Session load() {
+
+        String json = mPrefs.getString(KEY_SESSION, null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            JSONObject session = new JSONObject(json);
+            AuthState authState = AuthState.jsonDeserialize(
+                    session.getJSONObject(KEY_AUTH_STATE));
+            OAuthDiscoveryResponse discovery = session.has(KEY_DISCOVERY) ?
+                    OAuthDiscoveryResponse.fromJson(session.getJSONObject(KEY_DISCOVERY)) : null;
+            OAuth2TokenResponse tokenResponse = session.has(KEY_TOKEN_RESPONSE) ?
+                    readTokenResponse(session.getJSONObject(KEY_TOKEN_RESPONSE)) : null;
+            return new Session(authState, discovery, tokenResponse);
+        } catch (JSONException | ServerException e) {
+            Log.w(LOG_TAG, "Discarding unreadable session", e);
+            clear();
+            return null;
+        }
+    }
+
+    /**
+     * Persists the session, replacing the stored one.
+     *
+     * @param session Session.
+     */
+    void save(Session session) {
+
+        try {
+            JSONObject json = new JSONObject();
+            json.put(KEY_AUTH_STATE, session.getAuthState().jsonSerialize());
+            if (session.getDiscovery() != null) {
+                json.put(KEY_DISCOVERY, session.getDiscovery().toJson());
+            }
+            if (session.getTokenResponse() != null) {
+                json.put(KEY_TOKEN_RESPONSE, writeTokenResponse(session.getTokenResponse()));
+            }
+            mPrefs.edit().putString(KEY_SESSION, json.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error while persisting the session", e);
+        }
+    }
+
+    /**
+     * Removes the persisted session. A pending browser logout is kept, as it outlives the
+     * session it belonged to.
+     */
+    void clear() {
+
+        mPrefs.edit().remove(KEY_SESSION).apply();
+    }
+
+    /**
+     * Reads the end-session URL of a browser logout that was deferred.
+     *
+     * @return End-session URL or null if no browser logout is pending.
+     */
+    Uri loadPendingLogoutUri() {
+
+        String uri = mPrefs.getString(KEY_PENDING_LOGOUT_URI, null);
+        return uri != null ? Uri.parse(uri) : null;
+    }
+
+    /**
+     * Persists the end-session URL of a deferred browser logout.
+     *
+     * @param logoutUri End-session URL, null once no browser logout is pending.
+     */
+    void savePendingLogoutUri(Uri logoutUri) {
+
+        if (logoutUri != null) {
+            mPrefs.edit().putString(KEY_PENDING_LOGOUT_URI, logoutUri.toString()).apply();
+        } else {
+            mPrefs.edit().remove(KEY_PENDING_LOGOUT_URI).apply();
+        }
+    }
+
+    private static JSONObject writeTokenResponse(OAuth2TokenResponse tokenResponse)
+            throws JSONException {
+
+        JSONObject json = new JSONObject();
+        json.putOpt(KEY_TOKEN_TYPE, tokenResponse.getTokenType());
+        json.putOpt(KEY_ACCESS_TOKEN, tokenResponse.getAccessToken());
+        json.putOpt(KEY_EXPIRES_AT, tokenResponse.getAccessTokenExpirationTime());
+        json.putOpt(KEY_ID_TOKEN, tokenResponse.getIdToken());
+        json.putOpt(KEY_REFRESH_TOKEN, tokenResponse.getRefreshToken());
+        return json;
+    }
+
+    private static OAuth2TokenResponse readTokenResponse(JSONObject json) {
+
+        OAuth2TokenResponse tokenResponse = new OAuth2TokenResponse();
+        tokenResponse.setTokenType(json.optString(KEY_TOKEN_TYPE, null));
+        tokenResponse.setAccessToken(json.optString(KEY_ACCESS_TOKEN, null));
+        tokenResponse.setAccessTokenExpirationTime(json.has(KEY_EXPIRES_AT) ?
+                json.optLong(KEY_EXPIRES_AT) : null);
+        tokenResponse.setIdToken(json.optString(KEY_ID_TOKEN, null));
+        tokenResponse.setRefreshToken(json.optString(KEY_REFRESH_TOKEN, null));
+        return tokenResponse;
+    }
+
+    /**
+     * A snapshot of the login session.
+     */
+    static final class Session {
+
+        private final AuthState mAuthState;
+        private final OAuthDiscoveryResponse mDiscovery;
+        private final OAuth2TokenResponse mTokenResponse;
+
+        Session(AuthState authState, OAuthDiscoveryResponse discovery,
+                OAuth2TokenResponse tokenResponse) {
+
+            mAuthState = authState;
+            mDiscovery = discovery;
+            mTokenResponse = tokenResponse;
+        }
+
+        AuthState getAuthState() {
+
+            return mAuthState;
+        }
+
+        OAuthDiscoveryResponse getDiscovery() {
+
+            return mDiscovery;
+        }
+
+        OAuth2TokenResponse getTokenResponse() {
+
+            return mTokenResponse;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coalesces concurrent operations with the same key into one. The first caller starts the
+ * operation and later callers attach to it until it completes. Each caller gets its own waiter
+ * future; the shared operation is only aborted once every waiter has been cancelled or timed out.
+ * <p>
+ * Attaching to an operation in flight is a map lookup and a compare-and-set on the flight's
+ * waiter list; it never takes a lock, not even the monitor of the shared future. The result is
+ * handed to the waiters by a single callback that the flight registers on the shared future.
+ *
+ * @param <K> Key type.
+ * @param <V> Result type.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> mFlights = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a waiter on the operation for the key, starting the operation if none is in
+     * flight.
+     *
+     * @param key     Key identifying the operation.
+     * @param starter Starts the operation, completing the given future.
+     * @return Waiter future for this caller.
+     */
+    AuthFuture<V> join(final K key, Starter<V> starter) {
+
+        while (true) {
+            Flight<V> flight = mFlights.get(key);
+            if (flight == null) {
+                final Flight<V> created = new Flight<>();
+                // Registered before the flight is published, so joining never has to.
+                created.mFuture.addCallback(new AuthCallback<V>() {
+                    @Override
+                    public void onSuccess(V result) {
+
+                        mFlights.remove(key, created);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+
+                        mFlights.remove(key, created);
+                    }
+                });
+                AuthFuture<V> waiter = created.tryAttach();
+                flight = mFlights.putIfAbsent(key, created);
+                if (flight == null) {
+                    starter.start(created.mFuture);
+                    return waiter;
+                }
+            }
+            AuthFuture<V> waiter = flight.tryAttach();
+            if (waiter != null) {
+                return waiter;
+            }
+            // Done or abandoned by all of its waiters; make way for a new operation.
+            mFlights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Starts a coalesced operation.
+     *
+     * @param <V> Result type.
+     */
+    interface Starter<V> {
+
+        /**
+         * Starts the operation, which must eventually complete or fail the future.
+         *
+         * @param future Shared future of the operation.
+         */
+        void start(AuthFuture<V> future);
+    }
+
+    private static final class Flight<V> {
+
+        private static final AuthFuture<?>[] NO_WAITERS = new AuthFuture<?>[0];
+
+        private final AuthFuture<V> mFuture = new AuthFuture<>();
+        // Waiters of the operation, null once it is done or has been abandoned.
+        private final AtomicReference<AuthFuture<?>[]> mWaiters =
+                new AtomicReference<AuthFuture<?>[]>(NO_WAITERS);
+
+        Flight() {
+
+            mFuture.addCallback(new AuthCallback<V>() {
+                @Override
+                public void onSuccess(V result) {
+
+                    for (AuthFuture<V> waiter : close()) {
+                        waiter.complete(result);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+
+                    for (AuthFuture<V> waiter : close()) {
+                        waiter.fail(error);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Attaches a new waiter.
+         *
+         * @return The waiter, null if the operation is already done or abandoned.
+         */
+        AuthFuture<V> tryAttach() {
+
+            final AuthFuture<V> waiter = new AuthFuture<>();
+            while (true) {
+                AuthFuture<?>[] waiters = mWaiters.get();
+                if (waiters == null) {
+                    return null;
+                }
+                AuthFuture<?>[] attached = Arrays.copyOf(waiters, waiters.length + 1);
+                attached[waiters.length] = waiter;
+                if (mWaiters.compareAndSet(waiters, attached)) {
+                    break;
+                }
+            }
+            waiter.setCancelAction(new Runnable() {
+                @Override
+                public void run() {
+
+                    detach(waiter);
+                }
+            });
+            return waiter;
+        }
+
+        private void detach(AuthFuture<V> waiter) {
+
+            while (true) {
+                AuthFuture<?>[] waiters = mWaiters.get();
+                int index = waiters != null ? Arrays.asList(waiters).indexOf(waiter) : -1;
+                if (index < 0) {
+                    return;
+                }
+                AuthFuture<?>[] detached = null;
+                if (waiters.length > 1) {
+                    detached = new AuthFuture<?>[waiters.length - 1];
+                    System.arraycopy(waiters, 0, detached, 0, index);
+                    System.arraycopy(waiters, index + 1, detached, index,
+                            waiters.length - index - 1);
+                }
+                // The last waiter leaving abandons the flight in the same step, so no caller can
+                // attach to an operation that is about to be cancelled.
+                if (mWaiters.compareAndSet(waiters, detached)) {
+                    if (detached == null) {
+                        mFuture.cancel(true);
+                    }
+                    return;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private AuthFuture<V>[] close() {
+
+            AuthFuture<?>[] waiters = mWaiters.getAndSet(null);
+            return (AuthFuture<V>[]) (waiters != null ? waiters : NO_WAITERS);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import android.util.Log;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.GrantTypeValues;
+import net.openid.appauth.TokenResponse;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.http.Deadline;
+import org.oidc.agent.http.HttpTransport;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Refreshes the access token with the refresh token grant. A refresh is scheduled ahead of the
+ * access token expiry, and concurrent refresh requests share a single call to the token
+ * endpoint.
+ */
+class TokenRefresher {
+
+    static final long DEFAULT_REFRESH_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final String LOG_TAG = "TokenRefresher";
+
+    private final Host mHost;
+    private final AtomicReference<AuthFuture<OAuth2TokenResponse>> mInFlight =
+            new AtomicReference<>();
+    private volatile long mRefreshMarginMillis = DEFAULT_REFRESH_MARGIN_MILLIS;
+    private ScheduledFuture<?> mScheduledRefresh;
+
+    TokenRefresher(Host host) {
+
+        mHost = host;
+    }
+
+    /**
+     * Sets how long before the access token expiry the refresh is made.
+     *
+     * @param refreshMarginMillis Margin in milliseconds.
+     */
+    void setRefreshMargin(long refreshMarginMillis) {
+
+        mRefreshMarginMillis = refreshMarginMillis;
+    }
+
+    /**
+     * Refreshes the access token. If a refresh is already in flight, its future is returned
+     * instead of starting a new one.
+     *
+     * @return Future of the refreshed token response.
+     */
+    AuthFuture<OAuth2TokenResponse> refresh() {
+
+        while (true) {
+            AuthFuture<OAuth2TokenResponse> inFlight = mInFlight.get();
+            if (inFlight != null) {
+                return inFlight;
+            }
+            AuthFuture<OAuth2TokenResponse> future = new AuthFuture<>();
+            if (mInFlight.compareAndSet(null, future)) {
+                start(future);
+                return future;
+            }
+        }
+    }
+
+    private void start(final AuthFuture<OAuth2TokenResponse> future) {
+
+        future.addCallback(new AuthCallback<OAuth2TokenResponse>() {
+            @Override
+            public void onSuccess(OAuth2TokenResponse result) {
+
+                mInFlight.compareAndSet(future, null);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                mInFlight.compareAndSet(future, null);
+                Log.e(LOG_TAG, "Token refresh failed", error);
+            }
+        });
+        mHost.getScheduler().execute(new Runnable() {
+            @Override
+            public void run() {
+
+                performRefresh(future);
+            }
+        });
+    }
+
+    /**
+     * Schedules a refresh ahead of the expiry of the given token, replacing any refresh that was
+     * scheduled before. A token without a refresh token is only reported once it has expired.
+     *
+     * @param tokenResponse Current token response.
+     */
+    synchronized void schedule(final OAuth2TokenResponse tokenResponse) {
+
+        cancel();
+        final Long expiresAt = tokenResponse.getAccessTokenExpirationTime();
+        if (expiresAt == null) {
+            return;
+        }
+        if (tokenResponse.getRefreshToken() == null) {
+            // Nothing to refresh with, only report the expiry.
+            mScheduledRefresh = mHost.getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+
+                    mHost.onAccessTokenExpired(tokenResponse);
+                }
+            }, Math.max(expiresAt - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            return;
+        }
+        long delay = Math.max(expiresAt - mRefreshMarginMillis - System.currentTimeMillis(), 0);
+        Log.d(LOG_TAG, "Scheduling token refresh in " + delay + " ms");
+        mScheduledRefresh = mHost.getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+
+                refresh();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the scheduled refresh, if any.
+     */
+    synchronized void cancel() {
+
+        if (mScheduledRefresh != null) {
+            mScheduledRefresh.cancel(false);
+            mScheduledRefresh = null;
+        }
+    }
+
+    /**
+     * Cancels the scheduled refresh and aborts the refresh in flight.
+     */
+    void stop() {
+
+        cancel();
+        AuthFuture<OAuth2TokenResponse> inFlight = mInFlight.get();
+        if (inFlight != null) {
+            inFlight.cancel(true);
+        }
+    }
+
+    private void performRefresh(AuthFuture<OAuth2TokenResponse> future) {
+
+        // Tokens and discovery response are read from one snapshot, so they always belong to
+        // the same session.
+        SessionState refreshing = mHost.beginRefresh();
+        if (refreshing == null) {
+            future.fail(new ClientException("No refresh token is available"));
+            return;
+        }
+        OAuth2TokenResponse current = refreshing.getTokenResponse();
+        OAuthDiscoveryResponse discovery = refreshing.getDiscovery();
+        try {
+            AuthorizationServiceConfiguration configuration =
+                    new AuthorizationServiceConfiguration(discovery.getAuthorizationEndpoint(),
+                            discovery.getTokenEndpoint());
+            net.openid.appauth.TokenRequest request = new net.openid.appauth.TokenRequest.Builder(
+                    configuration, mHost.getClientId())
+                    .setGrantType(GrantTypeValues.REFRESH_TOKEN)
+                    .setRefreshToken(current.getRefreshToken())
+                    .build();
+            TokenResponse tokenResponse = TokenRequest.performTokenRequest(
+                    mHost.getHttpTransport(), request, future, Deadline.NONE);
+            OAuth2TokenResponse refreshed = TokenRequest.toOAuth2TokenResponse(tokenResponse);
+            // Servers that do not rotate refresh tokens omit them, as they may the ID token.
+            if (refreshed.getRefreshToken() == null) {
+                refreshed.setRefreshToken(current.getRefreshToken());
+            }
+            if (refreshed.getIdToken() == null) {
+                refreshed.setIdToken(current.getIdToken());
+            }
+            if (future.isDone()) {
+                mHost.abortRefresh(refreshing);
+                return;
+            }
+            if (!mHost.completeRefresh(refreshing, refreshed, tokenResponse)) {
+                future.fail(new ClientException("Session ended during the token refresh"));
+                return;
+            }
+            future.complete(refreshed);
+            schedule(refreshed);
+        } catch (AuthorizationException e) {
+            mHost.abortRefresh(refreshing);
+            future.fail(e);
+        } catch (RuntimeException e) {
+            // Fail the future, or the refresh would stay in flight for every later caller.
+            mHost.abortRefresh(refreshing);
+            future.fail(e);
+        }
+    }
+
+    /**
+     * Session the refresher works for, implemented by {@link LoginService}.
+     */
+    interface Host {
+
+        SdkScheduler getScheduler();
+
+        HttpTransport getHttpTransport();
+
+        String getClientId();
+
+        /**
+         * Moves a logged in session to the refreshing phase.
+         *
+         * @return The refreshing snapshot, or null if there is nothing to refresh.
+         */
+        SessionState beginRefresh();
+
+        /**
+         * Stores the refreshed tokens, unless the session changed while they were requested.
+         *
+         * @return true if the tokens were stored.
+         */
+        boolean completeRefresh(SessionState refreshing, OAuth2TokenResponse tokenResponse,
+                TokenResponse appAuthResponse);
+
+        /**
+         * Returns a refreshing session to the logged in phase after the refresh failed.
+         */
+        void abortRefresh(SessionState refreshing);
+
+        /**
+         * Called when an access token that cannot be refreshed has expired.
+         */
+        void onAccessTokenExpired(OAuth2TokenResponse tokenResponse);
+    }
+}
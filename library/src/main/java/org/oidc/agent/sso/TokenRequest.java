@@ -18,60 +18,153 @@
 
 package org.oidc.agent.sso;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
-import androidx.annotation.Nullable;
-
+import net.openid.appauth.AuthState;
 import net.openid.appauth.AuthorizationException;
 import net.openid.appauth.AuthorizationResponse;
-import net.openid.appauth.AuthorizationService;
+import net.openid.appauth.NoClientAuthentication;
 import net.openid.appauth.TokenResponse;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.http.Deadline;
+import org.oidc.agent.http.HttpCall;
+import org.oidc.agent.http.HttpRequest;
+import org.oidc.agent.http.HttpResponse;
+import org.oidc.agent.http.HttpTransport;
+import org.oidc.agent.util.Constants;
+import org.oidc.agent.util.UrlBuilder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Map;
 
-public class TokenRequest extends AsyncTask<Void, Void, OAuth2TokenResponse> {
+/**
+ * Exchanges the authorization code for tokens at the token endpoint.
+ */
+public class TokenRequest implements Runnable {
 
-    private AuthorizationService mAuthorizationService;
+    private HttpTransport mHttpTransport;
+    private AuthState mAuthState;
     private AuthorizationResponse mResponse;
-    private TokenRespCallback mCallback;
+    private AuthFuture<OAuth2TokenResponse> mFuture;
+    private Deadline mDeadline;
     private static final String LOG_TAG = "TokenRequest";
-    OAuth2TokenResponse oAuth2TokenResponse;
 
-    TokenRequest(AuthorizationService mAuthorizationService,
-            OAuth2TokenResponse mAuth2TokenResponse, AuthorizationResponse mResponse,
-            TokenRespCallback mCallback) {
-        this.mAuthorizationService = mAuthorizationService;
-        oAuth2TokenResponse = mAuth2TokenResponse;
+    TokenRequest(HttpTransport httpTransport, AuthState authState,
+            AuthorizationResponse mResponse, AuthFuture<OAuth2TokenResponse> future,
+            Deadline deadline) {
+        this.mHttpTransport = httpTransport;
+        this.mAuthState = authState;
         this.mResponse = mResponse;
-        this.mCallback = mCallback;
+        this.mFuture = future;
+        this.mDeadline = deadline;
     }
 
     @Override
-    protected OAuth2TokenResponse doInBackground(Void... voids) {
-
-        mAuthorizationService.performTokenRequest(mResponse.createTokenExchangeRequest(),
-                new AuthorizationService.TokenResponseCallback() {
-                    @Override
-                    public void onTokenRequestCompleted(@Nullable TokenResponse tokenResponse,
-                            @Nullable AuthorizationException exception) {
-                        if (exception != null) {
-                            Log.e(LOG_TAG, "Token Exchange failed", exception);
-                        } else {
-                            if (tokenResponse != null) {
-                                oAuth2TokenResponse.setAccessToken(tokenResponse.accessToken);
-                                oAuth2TokenResponse.setIdToken(tokenResponse.idToken);
-                                oAuth2TokenResponse.setAccessTokenExpirationTime(
-                                        tokenResponse.accessTokenExpirationTime);
-                                oAuth2TokenResponse.setRefreshToken(tokenResponse.refreshToken);
-                                oAuth2TokenResponse.setTokenType(tokenResponse.tokenType);
-                                mCallback.onTokenRequestCompleted(oAuth2TokenResponse);
-                                mAuthorizationService.dispose();
-                            }
-                        }
-                    }
-                });
+    public void run() {
+
+        if (mFuture.isDone()) {
+            return;
+        }
+        try {
+            TokenResponse tokenResponse = performTokenRequest(mHttpTransport,
+                    mResponse.createTokenExchangeRequest(), mFuture, mDeadline);
+            Jwt idToken = Jwt.decodeOrNull(tokenResponse.idToken);
+            if (idToken != null) {
+                IdTokenValidator.checkNonce(idToken,
+                        mResponse.request.additionalParameters.get(Constants.NONCE), true);
+            }
+            mAuthState.update(tokenResponse, null);
+            mFuture.complete(toOAuth2TokenResponse(tokenResponse));
+        } catch (AuthorizationException exception) {
+            Log.e(LOG_TAG, "Token Exchange failed", exception);
+            mFuture.fail(exception);
+        } catch (ClientException exception) {
+            Log.e(LOG_TAG, "Token Exchange returned an ID token for another request", exception);
+            mFuture.fail(exception);
+        } catch (RuntimeException exception) {
+            // Complete the future even on a bug, or the login would stay in progress forever.
+            Log.e(LOG_TAG, "Token Exchange failed unexpectedly", exception);
+            mFuture.fail(exception);
+        }
+    }
+
+    /**
+     * Copies the tokens of an AppAuth token response.
+     *
+     * @param tokenResponse TokenResponse.
+     * @return OAuth2TokenResponse.
+     */
+    static OAuth2TokenResponse toOAuth2TokenResponse(TokenResponse tokenResponse) {
+
+        OAuth2TokenResponse oAuth2TokenResponse = new OAuth2TokenResponse();
+        oAuth2TokenResponse.setAccessToken(tokenResponse.accessToken);
+        oAuth2TokenResponse.setIdToken(tokenResponse.idToken);
+        oAuth2TokenResponse.setAccessTokenExpirationTime(tokenResponse.accessTokenExpirationTime);
+        oAuth2TokenResponse.setRefreshToken(tokenResponse.refreshToken);
+        oAuth2TokenResponse.setTokenType(tokenResponse.tokenType);
         return oAuth2TokenResponse;
     }
 
+    /**
+     * Sends the token request to the token endpoint as a public client.
+     *
+     * @param httpTransport Transport.
+     * @param request       Token request built by AppAuth.
+     * @param owner         Future the request is made for, cancelling it aborts the request.
+     * @param deadline      Deadline bounding the timeouts of the request.
+     * @return TokenResponse.
+     * @throws AuthorizationException If the request failed or the server returned an error.
+     */
+    static TokenResponse performTokenRequest(HttpTransport httpTransport,
+            net.openid.appauth.TokenRequest request, AuthFuture<?> owner, Deadline deadline)
+            throws AuthorizationException {
+
+        UrlBuilder body = UrlBuilder.formBody();
+        appendAll(body, request.getRequestParameters());
+        appendAll(body, NoClientAuthentication.INSTANCE.getRequestParameters(request.clientId));
+        try {
+            HttpRequest httpRequest = new HttpRequest.Builder(
+                    request.configuration.tokenEndpoint.toString())
+                    .setHeader(Constants.ACCEPT, Constants.APPLICATION_JSON)
+                    .post(Constants.FORM_URL_ENCODED, body.buildBytes())
+                    .setDeadline(deadline)
+                    .build();
+            HttpCall call = httpTransport.newCall(httpRequest);
+            owner.setInFlightCall(call);
+            HttpResponse response = call.execute();
+            int code = response.getCode();
+            JSONObject json = new JSONObject(response.readBodyString());
+            if (code != HttpURLConnection.HTTP_OK) {
+                String error = json.optString(AuthorizationException.PARAM_ERROR, null);
+                if (error == null) {
+                    throw AuthorizationException.fromTemplate(
+                            AuthorizationException.GeneralErrors.SERVER_ERROR, null);
+                }
+                throw AuthorizationException.fromOAuthTemplate(
+                        AuthorizationException.TokenRequestErrors.byString(error), error,
+                        json.optString(AuthorizationException.PARAM_ERROR_DESCRIPTION, null),
+                        null);
+            }
+            return new TokenResponse.Builder(request).fromResponseJson(json).build();
+        } catch (IOException e) {
+            throw AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.NETWORK_ERROR, e);
+        } catch (JSONException e) {
+            throw AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.JSON_DESERIALIZATION_ERROR, e);
+        }
+    }
+
+    private static void appendAll(UrlBuilder body, Map<String, String> params) {
+
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            body.appendQueryParameter(param.getKey(), param.getValue());
+        }
+    }
+
     /**
      * Interface to handle token response.
      */
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last userinfo response of the current access token. A response is served from the
+ * cache while it is fresh, and for a while longer while it is revalidated in the background.
+ */
+class UserInfoCache {
+
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long DEFAULT_STALE_WHILE_REVALIDATE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private volatile Entry mEntry;
+    private volatile long mTtlMillis = DEFAULT_TTL_MILLIS;
+    private volatile long mStaleWhileRevalidateMillis = DEFAULT_STALE_WHILE_REVALIDATE_MILLIS;
+
+    /**
+     * Sets how long a response is served without revalidation, and how long after that a stale
+     * response may still be served while it is revalidated.
+     *
+     * @param ttlMillis                  Time to live in milliseconds, 0 disables the cache.
+     * @param staleWhileRevalidateMillis Stale window in milliseconds.
+     */
+    void setTtl(long ttlMillis, long staleWhileRevalidateMillis) {
+
+        mTtlMillis = ttlMillis;
+        mStaleWhileRevalidateMillis = staleWhileRevalidateMillis;
+        if (ttlMillis <= 0) {
+            mEntry = null;
+        }
+    }
+
+    /**
+     * Returns the cached entry for the access token.
+     *
+     * @param accessToken Access token the response was fetched with.
+     * @return Entry or null if there is none for this token.
+     */
+    Entry get(String accessToken) {
+
+        Entry entry = mEntry;
+        return entry != null && entry.mAccessToken.equals(accessToken) ? entry : null;
+    }
+
+    /**
+     * Stores a response fetched with the access token, replacing any previous entry.
+     *
+     * @param accessToken Access token.
+     * @param response    Userinfo response.
+     * @param eTag        ETag header value, may be null.
+     */
+    void put(String accessToken, UserInfoResponse response, String eTag) {
+
+        if (mTtlMillis > 0) {
+            mEntry = new Entry(accessToken, response, eTag, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Marks the entry as fresh again after the server answered 304 Not Modified.
+     *
+     * @param entry Revalidated entry.
+     */
+    void refresh(Entry entry) {
+
+        put(entry.mAccessToken, entry.mResponse, entry.mETag);
+    }
+
+    /**
+     * Drops the cached response, e.g. on logout or when the access token changes.
+     */
+    void clear() {
+
+        mEntry = null;
+    }
+
+    /**
+     * A cached userinfo response.
+     */
+    final class Entry {
+
+        private final String mAccessToken;
+        private final UserInfoResponse mResponse;
+        private final String mETag;
+        private final long mFetchedAt;
+
+        Entry(String accessToken, UserInfoResponse response, String eTag, long fetchedAt) {
+
+            mAccessToken = accessToken;
+            mResponse = response;
+            mETag = eTag;
+            mFetchedAt = fetchedAt;
+        }
+
+        UserInfoResponse getResponse() {
+
+            return mResponse;
+        }
+
+        String getETag() {
+
+            return mETag;
+        }
+
+        boolean isFresh() {
+
+            return System.currentTimeMillis() - mFetchedAt < mTtlMillis;
+        }
+
+        boolean isUsableWhileRevalidating() {
+
+            return System.currentTimeMillis() - mFetchedAt < mTtlMillis
+                    + mStaleWhileRevalidateMillis;
+        }
+    }
+}
@@ -18,53 +18,103 @@
 
 package org.oidc.agent.sso;
 
-import android.os.AsyncTask;
+import android.util.JsonReader;
 import android.util.Log;
-import okio.Okio;
-import org.json.JSONObject;
+import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.http.Deadline;
+import org.oidc.agent.http.HttpCall;
+import org.oidc.agent.http.HttpRequest;
+import org.oidc.agent.http.HttpResponse;
+import org.oidc.agent.http.HttpTransport;
 import org.oidc.agent.util.Constants;
+import org.oidc.agent.util.JsonStreams;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.Charset;
 
-public class UserInfoRequest extends AsyncTask<Void, Void, UserInfoResponse> {
+/**
+ * Calls the userinfo endpoint with the access token.
+ */
+public class UserInfoRequest implements Runnable {
 
+    private HttpTransport mHttpTransport;
     private OAuthDiscoveryResponse mDiscovery;
     private String accessToken;
-    private UserInfoResponseCallback mCallback;
+    private UserInfoCache mCache;
+    private AuthFuture<UserInfoResponse> mFuture;
+    private Deadline mDeadline;
     private static final String LOG_TAG = "UserInfoRequest";
 
 
-    UserInfoRequest(OAuthDiscoveryResponse discovery, String accessToken,
-            UserInfoResponseCallback callback) {
+    UserInfoRequest(HttpTransport httpTransport, OAuthDiscoveryResponse discovery,
+            String accessToken, UserInfoCache cache, AuthFuture<UserInfoResponse> future,
+            Deadline deadline) {
 
+        this.mHttpTransport = httpTransport;
         this.mDiscovery = discovery;
-        this.mCallback = callback;
+        this.mCache = cache;
+        this.mFuture = future;
         this.accessToken = accessToken;
+        this.mDeadline = deadline;
     }
 
     @Override
-    protected UserInfoResponse doInBackground(Void... voids) {
+    public void run() {
 
-        UserInfoResponse userInfoResponse = null;
+        if (mFuture.isDone()) {
+            return;
+        }
+        if (mDiscovery.getUserInfoEndpoint() == null) {
+            mFuture.fail(new ServerException("Discovery response does not contain a "
+                    + "userinfo_endpoint"));
+            return;
+        }
         Log.d(LOG_TAG, "Call userinfo endpoint: " + mDiscovery.getUserInfoEndpoint().toString());
+        UserInfoCache.Entry cached = mCache.get(accessToken);
         try {
-            URL userInfoEndpoint = new URL(mDiscovery.getUserInfoEndpoint().toString());
-            HttpURLConnection conn = (HttpURLConnection) userInfoEndpoint.openConnection();
-            conn.setRequestProperty(Constants.AUTHORIZATION, Constants.BEARER + accessToken);
-            conn.setInstanceFollowRedirects(false);
-            String response = Okio.buffer(Okio.source(conn.getInputStream()))
-                    .readString(Charset.forName("UTF-8"));
-
-            JSONObject json = new JSONObject(response);
-            userInfoResponse = new UserInfoResponse(json);
-            mCallback.onUserInfoRequestCompleted(userInfoResponse);
+            HttpRequest.Builder builder = new HttpRequest.Builder(
+                    mDiscovery.getUserInfoEndpoint().toString())
+                    .setHeader(Constants.AUTHORIZATION, Constants.BEARER + accessToken)
+                    .setFollowRedirects(false)
+                    .setDeadline(mDeadline);
+            if (cached != null && cached.getETag() != null) {
+                builder.setHeader(Constants.IF_NONE_MATCH, cached.getETag());
+            }
+            HttpCall call = mHttpTransport.newCall(builder.build());
+            mFuture.setInFlightCall(call);
+            HttpResponse response = call.execute();
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                response.close();
+                mCache.refresh(cached);
+                mFuture.complete(cached.getResponse());
+                return;
+            }
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                response.close();
+                throw new ServerException("Server returns " + response.getCode() + " when "
+                        + "calling userinfo endpoint");
+            }
+            if (response.getBody() == null) {
+                throw new ServerException("Userinfo endpoint returned an empty response");
+            }
+            String eTag = response.getHeader(Constants.ETAG);
+            UserInfoResponse userInfoResponse;
+            try (JsonReader reader = JsonStreams.newReader(response.getBody())) {
+                userInfoResponse = UserInfoResponse.parse(reader);
+            }
+            mCache.put(accessToken, userInfoResponse, eTag);
+            mFuture.complete(userInfoResponse);
 
-        } catch (Exception e) {
-            //
+        } catch (ServerException e) {
+            Log.e(LOG_TAG, e.getMessage());
+            mFuture.fail(e);
+        } catch (IOException e) {
+            mFuture.fail(new ServerException("Error while calling the userinfo endpoint. ", e));
+        } catch (RuntimeException e) {
+            // Complete the future even on a bug, or every waiter of the shared call would hang.
+            Log.e(LOG_TAG, "Unexpected error while calling the userinfo endpoint", e);
+            mFuture.fail(e);
         }
-        return userInfoResponse;
     }
 
     /**
@@ -18,22 +18,49 @@
 
 package org.oidc.agent.sso;
 
-import android.util.Log;
-import org.json.JSONException;
+import android.util.JsonReader;
+
+import androidx.annotation.NonNull;
+
 import org.json.JSONObject;
+import org.oidc.agent.exception.ServerException;
 import org.oidc.agent.util.Constants;
 
+import java.io.IOException;
+
 /**
  * This class contains userinfo response.
  */
 public class UserInfoResponse {
 
-    private JSONObject mUserInfoResponse;
+    private final Claims mClaims;
     static final String LOG_TAG = "UserInfoResponse";
 
     public UserInfoResponse(JSONObject userInfoResponse) {
 
-        mUserInfoResponse = userInfoResponse;
+        mClaims = Claims.fromJson(userInfoResponse);
+    }
+
+    private UserInfoResponse(Claims claims) {
+
+        mClaims = claims;
+    }
+
+    /**
+     * Parses a userinfo response from a stream without building a JSON tree.
+     *
+     * @param reader JsonReader positioned before the userinfo response.
+     * @return UserInfoResponse.
+     * @throws IOException     If the stream could not be read or is not valid JSON.
+     * @throws ServerException If the response is not a JSON object.
+     */
+    static UserInfoResponse parse(JsonReader reader) throws IOException, ServerException {
+
+        try {
+            return new UserInfoResponse(Claims.read(reader));
+        } catch (IllegalStateException e) {
+            throw new ServerException("Userinfo response is not a JSON object. ", e);
+        }
     }
 
     /**
@@ -42,31 +69,39 @@ public class UserInfoResponse {
      */
     public String getSubject(){
 
-        Log.i(LOG_TAG, "Call subject in userinfo service");
-        return getUserInfoProperty(Constants.SUBJECT);
+        return mClaims.getString(Constants.SUBJECT);
     }
 
     /**
      * Returns the claim values of additional claims returned in the userinfo response.
      * @param property Additional claim.
-     * @return The claim value returned in the userinfo response.
+     * @return The claim value returned in the userinfo response, or null if the claim is
+     * missing or is not a string. Use {@link #getClaims()} to read claims of other types.
      */
     public String getUserInfoProperty(String property) {
 
-        Log.i(LOG_TAG, "Call userinfo service to get property");
-        String userInfoProperty = null;
-        try {
-            userInfoProperty = (String) mUserInfoResponse.get(property);
-        } catch (JSONException e) {
+        return mClaims.getString(property);
+    }
 
-        }
-        return userInfoProperty;
+    /**
+     * Returns the typed claims of the userinfo response.
+     *
+     * @return Claims.
+     */
+    @NonNull
+    public Claims getClaims() {
+
+        return mClaims;
     }
 
+    /**
+     * Returns all claims of the userinfo response. The JSON object is built on each call, prefer
+     * {@link #getClaims()} for repeated reads.
+     *
+     * @return Claims.
+     */
     public JSONObject getUserInfoProperties() {
 
-        Log.i(LOG_TAG, "Call userinfo service to get all claims");
-        return mUserInfoResponse;
-
+        return mClaims.toJson();
     }
 }
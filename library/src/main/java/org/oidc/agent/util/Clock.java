@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.util;
+
+import android.os.SystemClock;
+
+/**
+ * Source of the current time for the SDK. Components that check expiry or rate limits read the
+ * time through it, so they can be tested with a fixed clock.
+ */
+public interface Clock {
+
+    /**
+     * The device clocks.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * Returns the wall clock time, for comparing with times issued by the server.
+     *
+     * @return Milliseconds since epoch.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Returns the time since boot, for measuring intervals.
+     *
+     * @return Milliseconds since boot.
+     */
+    long elapsedRealtime();
+}
@@ -27,12 +27,14 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import okio.Buffer;
 import okio.BufferedSource;
@@ -41,7 +43,9 @@ import org.oidc.agent.exception.ClientException;
 import org.oidc.agent.library.R;
 
 /**
- * Reads and validates the configuration from res/raw/oidc_config.json file.
+ * Reads and validates the configuration from res/raw/oidc_config.json file. When the app applies
+ * oidc-config.gradle, the configuration is validated at build time and read from the resource
+ * values it generates instead.
  */
 public class ConfigManager {
 
@@ -62,16 +66,26 @@ public class ConfigManager {
 
 
     private int mConfigHash;
+    private volatile Boolean mConfigurationChanged;
     private String mConfigurationError;
-    private final SharedPreferences prefs;
+    private SharedPreferences prefs;
 
 
     private ConfigManager(Context context) throws ClientException {
 
         this.mContext = context;
         mResources = context.getResources();
-        prefs = context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE);
-        readConfiguration(R.raw.oidc_config);
+        if (mResources.getBoolean(R.bool.oidc_config_compiled)) {
+            // Validated and compiled from oidc_config.json at build time.
+            mClientId = mResources.getString(R.string.oidc_client_id);
+            mScope = mResources.getString(R.string.oidc_authorization_scope);
+            mRedirectUri = Uri.parse(mResources.getString(R.string.oidc_redirect_uri));
+            mDicoveryUri = Uri.parse(mResources.getString(R.string.oidc_discovery_uri));
+        } else {
+            readConfiguration(R.raw.oidc_config);
+        }
+        mConfigHash = Arrays.hashCode(new Object[] {mClientId, mScope, mRedirectUri,
+                mDicoveryUri});
     }
 
     /**
@@ -80,7 +94,8 @@ public class ConfigManager {
      * @param context Context object with information about the current state of the application.
      * @return ConfigManager instance.
      */
-    public static ConfigManager getInstance(Context context) throws ClientException {
+    public static synchronized ConfigManager getInstance(Context context)
+            throws ClientException {
 
         ConfigManager config = sInstance.get();
         if (config == null) {
@@ -136,6 +151,26 @@ public class ConfigManager {
         return mDicoveryUri;
     }
 
+    /**
+     * Reads the discovery response bundled in res/raw/oidc_discovery.json. It is used as a
+     * bootstrap value until a response has been fetched from the discovery endpoint, so that
+     * the first login does not wait for the network.
+     *
+     * @return Bundled discovery response, or null if the file is empty or unreadable.
+     */
+    @Nullable
+    public JSONObject readBootstrapDiscovery() {
+
+        try (BufferedSource source = Okio.buffer(Okio.source(
+                mResources.openRawResource(R.raw.oidc_discovery)))) {
+            JSONObject discovery = new JSONObject(source.readString(Charset.forName("UTF-8")));
+            return discovery.length() > 0 ? discovery : null;
+        } catch (IOException | JSONException | Resources.NotFoundException ex) {
+            Log.w(LOG_TAG, "Ignoring the bundled discovery response", ex);
+            return null;
+        }
+    }
+
     /**
      * Reads the configuration values.
      */
@@ -229,13 +264,45 @@ public class ConfigManager {
         }
     }
 
+    /**
+     * Returns whether the configuration differs from the one the last login was made with. The
+     * stored hash is read once, later calls are answered from memory.
+     *
+     * @return true if no login was accepted with the current configuration.
+     */
     public boolean hasConfigurationChanged() {
-        Integer lastKnownConfigHash = getLastKnownConfigHash();
-        return lastKnownConfigHash == null || mConfigHash != lastKnownConfigHash;
+
+        Boolean changed = mConfigurationChanged;
+        if (changed == null) {
+            Integer lastKnownConfigHash = getLastKnownConfigHash();
+            changed = lastKnownConfigHash == null || mConfigHash != lastKnownConfigHash;
+            mConfigurationChanged = changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Records the current configuration as the one the user logged in with.
+     */
+    public void acceptConfiguration() {
+
+        if (Boolean.FALSE.equals(mConfigurationChanged)) {
+            return;
+        }
+        mConfigurationChanged = false;
+        getPrefs().edit().putString(KEY_LAST_HASH, Integer.toString(mConfigHash)).apply();
     }
 
     private Integer getLastKnownConfigHash() {
-        String hashString = prefs.getString(KEY_LAST_HASH, null);
+        String hashString = getPrefs().getString(KEY_LAST_HASH, null);
         return hashString == null ? null : Integer.valueOf(hashString);
     }
+
+    private synchronized SharedPreferences getPrefs() {
+
+        if (prefs == null) {
+            prefs = mContext.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE);
+        }
+        return prefs;
+    }
 }
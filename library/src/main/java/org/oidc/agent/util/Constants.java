@@ -22,12 +22,29 @@ public class Constants {
 
     // Constants related to HTTP connection
     public static final String HTTP_GET = "GET";
+    public static final String HTTP_POST = "POST";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String ACCEPT = "Accept";
+    public static final String APPLICATION_JSON = "application/json";
+    public static final String FORM_URL_ENCODED = "application/x-www-form-urlencoded";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String GZIP = "gzip";
     public static final String AUTHORIZATION = "Authorization";
     public static final String BEARER = "Bearer ";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String RETRY_AFTER = "Retry-After";
+    public static final String ETAG = "ETag";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String EXPIRES = "Expires";
+    public static final String DATE = "Date";
 
     // Constants related to Configuration.
     public static final String PREFS_NAME = "config";
     public static final String KEY_LAST_HASH = "lastHash";
+    public static final String DISCOVERY_PREFS_NAME = "discovery";
+    public static final String SESSION_PREFS_NAME = "session";
+    public static final String JWKS_PREFS_NAME = "jwks";
     public static final String DISCOVERY_ENDPOINT =
             "/oauth2/oidcdiscovery/.well-known/openid-configuration";
     public static final String DISCOVERY_URI = "discovery_uri";
@@ -40,11 +57,40 @@ public class Constants {
     public static final String TOKEN_ENDPOINT = "token_endpoint";
     public static final String LOGOUT_ENDPOINT = "end_session_endpoint";
     public static final String USERINFO_ENDPOINT = "userinfo_endpoint";
+    public static final String ISSUER = "issuer";
+    public static final String JWKS_URI = "jwks_uri";
+    public static final String REVOCATION_ENDPOINT = "revocation_endpoint";
+    public static final String SCOPES_SUPPORTED = "scopes_supported";
+    public static final String RESPONSE_TYPES_SUPPORTED = "response_types_supported";
+    public static final String GRANT_TYPES_SUPPORTED = "grant_types_supported";
+    public static final String ID_TOKEN_SIGNING_ALG_VALUES_SUPPORTED =
+            "id_token_signing_alg_values_supported";
 
-    // Constants related to OIDC userinfo response.
+    // Constants related to OIDC userinfo response and ID token claims.
     public static final String SUBJECT = "sub";
+    public static final String EXPIRATION_TIME = "exp";
+    public static final String ISSUED_AT = "iat";
+    public static final String ISSUER_CLAIM = "iss";
+    public static final String AUDIENCE = "aud";
+    public static final String AUTHORIZED_PARTY = "azp";
+    public static final String NONCE = "nonce";
+
+    // Constants related to JOSE headers and JSON Web Keys.
+    public static final String ALGORITHM = "alg";
+    public static final String KEY_ID = "kid";
+    public static final String KEY_TYPE = "kty";
+    public static final String KEY_USE = "use";
+    public static final String KEYS = "keys";
+    public static final String RS256 = "RS256";
+    public static final String ES256 = "ES256";
 
     // Constants related to OIDC logout request.
     public static final String ID_TOKEN_HINT = "id_token_hint";
     public static final String POST_LOGOUT_REDIRECT_URI = "post_logout_redirect_uri";
+
+    // Constants related to token revocation request.
+    public static final String TOKEN = "token";
+    public static final String TOKEN_TYPE_HINT = "token_type_hint";
+    public static final String REFRESH_TOKEN = "refresh_token";
+    public static final String ACCESS_TOKEN = "access_token";
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.util;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helpers for reading JSON responses as a stream of tokens, so that only the values the SDK
+ * uses are materialized.
+ */
+public final class JsonStreams {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private JsonStreams() {
+
+    }
+
+    /**
+     * Creates a reader over a UTF-8 encoded JSON stream. Closing the reader closes the stream.
+     *
+     * @param in JSON stream.
+     * @return JsonReader.
+     */
+    public static JsonReader newReader(InputStream in) {
+
+        return new JsonReader(new BufferedReader(new InputStreamReader(in, UTF_8)));
+    }
+
+    /**
+     * Reads the next value if it is a string, otherwise skips it.
+     *
+     * @param reader JsonReader positioned before a value.
+     * @return String value, or null if the value is not a string.
+     * @throws IOException If the stream could not be read.
+     */
+    public static String readStringOrSkip(JsonReader reader) throws IOException {
+
+        if (reader.peek() == JsonToken.STRING) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * Reads the next value as a list of strings. Non-string elements and non-array values are
+     * skipped.
+     *
+     * @param reader JsonReader positioned before a value.
+     * @return Unmodifiable list of strings, empty if the value is not an array.
+     * @throws IOException If the stream could not be read.
+     */
+    public static List<String> readStringList(JsonReader reader) throws IOException {
+
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String value = readStringOrSkip(reader);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        reader.endArray();
+        return values.isEmpty() ? Collections.<String>emptyList()
+                : Collections.unmodifiableList(values);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * Builds URLs with query parameters, or application/x-www-form-urlencoded bodies, into a single
+ * StringBuilder. Parameters are encoded in place without intermediate strings or maps.
+ */
+public final class UrlBuilder {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final StringBuilder mBuilder;
+    private boolean mNeedsSeparator;
+    private boolean mHasQuery;
+
+    /**
+     * Creates a builder that appends query parameters to the given URL, which may already
+     * contain a query.
+     *
+     * @param url Base URL.
+     */
+    public UrlBuilder(String url) {
+
+        mBuilder = new StringBuilder(url.length() + 128).append(url);
+        int query = url.indexOf('?');
+        mHasQuery = query >= 0;
+        mNeedsSeparator = mHasQuery && query < url.length() - 1 && !url.endsWith("&");
+    }
+
+    /**
+     * Creates a builder for an application/x-www-form-urlencoded body.
+     *
+     * @return UrlBuilder without a base URL.
+     */
+    public static UrlBuilder formBody() {
+
+        UrlBuilder builder = new UrlBuilder("");
+        builder.mHasQuery = true;
+        return builder;
+    }
+
+    /**
+     * Appends an encoded parameter. Parameters with a null value are skipped.
+     *
+     * @param name  Parameter name.
+     * @param value Parameter value.
+     * @return This builder.
+     */
+    public UrlBuilder appendQueryParameter(String name, String value) {
+
+        if (value == null) {
+            return this;
+        }
+        if (!mHasQuery) {
+            mBuilder.append('?');
+            mHasQuery = true;
+        } else if (mNeedsSeparator) {
+            mBuilder.append('&');
+        }
+        encode(mBuilder, name);
+        mBuilder.append('=');
+        encode(mBuilder, value);
+        mNeedsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Returns the URL or form body.
+     *
+     * @return URL or form body.
+     */
+    public String build() {
+
+        return mBuilder.toString();
+    }
+
+    /**
+     * Returns the form body as UTF-8 bytes.
+     *
+     * @return Form body.
+     */
+    public byte[] buildBytes() {
+
+        // The encoded output is ASCII, so it is valid UTF-8 as well.
+        return build().getBytes(Charset.forName("US-ASCII"));
+    }
+
+    @Override
+    public String toString() {
+
+        return build();
+    }
+
+    /**
+     * Encodes a string with the same rules as {@link java.net.URLEncoder} with UTF-8: letters,
+     * digits and "-_.*" are kept, space becomes "+" and everything else is percent-encoded.
+     */
+    static void encode(StringBuilder out, String value) {
+
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '*') {
+                out.append(c);
+            } else if (c == ' ') {
+                out.append('+');
+            } else if (c < 0x80) {
+                appendEscaped(out, c);
+            } else if (c < 0x800) {
+                appendEscaped(out, 0xC0 | (c >> 6));
+                appendEscaped(out, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendEscaped(out, 0xF0 | (codePoint >> 18));
+                appendEscaped(out, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEscaped(out, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, encoded as '?' like URLEncoder does.
+                appendEscaped(out, '?');
+            } else {
+                appendEscaped(out, 0xE0 | (c >> 12));
+                appendEscaped(out, 0x80 | ((c >> 6) & 0x3F));
+                appendEscaped(out, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendEscaped(StringBuilder out, int b) {
+
+        out.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+    }
+}
@@ -18,29 +18,38 @@
 
 package org.oidc.agent.util;
 
-import org.apache.commons.lang.StringUtils;
-
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
+/**
+ * @deprecated Use {@link UrlBuilder}, which encodes parameters without intermediate maps and
+ * strings. The methods here keep their original output, names included, which unlike
+ * {@link UrlBuilder} are not encoded.
+ */
+@Deprecated
 public class Util {
 
     public static String buildURLWithQueryParams(String url, Map<String, String> queryParams)
             throws UnsupportedEncodingException {
 
-        List<String> queryParam1 = new ArrayList<>();
+        return appendQueryParamsStringToUrl(url, encodeQueryParams(queryParams));
+    }
+
+    /**
+     * Encode the params as an application/x-www-form-urlencoded string.
+     */
+    private static String encodeQueryParams(Map<String, String> queryParams)
+            throws UnsupportedEncodingException {
+
+        StringBuilder query = new StringBuilder();
         for (Map.Entry<String, String> entry : queryParams.entrySet()) {
-            String encodedValue = URLEncoder.encode(entry.getValue(),
-                    String.valueOf(Charset.forName("UTF-8")));
-            queryParam1.add(entry.getKey() + "=" + encodedValue);
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(entry.getKey()).append('=');
+            UrlBuilder.encode(query, entry.getValue());
         }
-
-        String queryString = StringUtils.join(queryParam1, "&");
-        return appendQueryParamsStringToUrl(url, queryString);
+        return query.toString();
     }
 
     /**
@@ -49,7 +58,7 @@ public class Util {
     public static String appendQueryParamsStringToUrl(String url, String queryParamString) {
         String queryAppendedUrl = url;
         // check whether param string to append is blank
-        if (StringUtils.isNotEmpty(queryParamString)) {
+        if (queryParamString != null && !queryParamString.isEmpty()) {
             // check whether the URL already contains query params
             String appender;
             if (url.contains("?")) {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Transport that answers calls with queued responses or failures, in order, and records the
+ * requests it was given.
+ */
+public class FakeHttpTransport implements HttpTransport {
+
+    private final Deque<Object> mResults = new ArrayDeque<>();
+    private final List<HttpRequest> mRequests = new ArrayList<>();
+
+    /**
+     * Queues a response.
+     *
+     * @param code    Status code.
+     * @param body    Body.
+     * @param headers Header names and values, alternating.
+     * @return This transport.
+     */
+    public synchronized FakeHttpTransport respond(int code, String body, String... headers) {
+
+        Map<String, List<String>> headerMap = new TreeMap<>();
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            headerMap.put(headers[i], Collections.singletonList(headers[i + 1]));
+        }
+        mResults.add(new HttpResponse(code, headerMap,
+                new ByteArrayInputStream(body.getBytes(Charset.forName("UTF-8")))));
+        return this;
+    }
+
+    /**
+     * Queues a failure.
+     *
+     * @param error Error thrown by the call.
+     * @return This transport.
+     */
+    public synchronized FakeHttpTransport fail(IOException error) {
+
+        mResults.add(error);
+        return this;
+    }
+
+    /**
+     * Returns the requests executed so far.
+     *
+     * @return Requests, oldest first.
+     */
+    public synchronized List<HttpRequest> getRequests() {
+
+        return new ArrayList<>(mRequests);
+    }
+
+    @Override
+    public HttpCall newCall(final HttpRequest request) {
+
+        return new HttpCall() {
+            private volatile boolean mCancelled;
+
+            @Override
+            public HttpResponse execute() throws IOException {
+
+                Object result;
+                synchronized (FakeHttpTransport.this) {
+                    mRequests.add(request);
+                    result = mResults.poll();
+                }
+                if (result == null) {
+                    throw new AssertionError("Unexpected request to " + request.getUrl());
+                }
+                if (result instanceof IOException) {
+                    throw (IOException) result;
+                }
+                return (HttpResponse) result;
+            }
+
+            @Override
+            public void cancel() {
+
+                mCancelled = true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+
+                return mCancelled;
+            }
+        };
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import org.junit.Test;
+import org.oidc.agent.util.Clock;
+import org.oidc.agent.util.Constants;
+import org.oidc.agent.util.FakeClock;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResilientTransportTest {
+
+    private static final String TOKEN_URL = "https://idp.example.com/token";
+    private static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long FAILURE_CACHE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final FakeHttpTransport mDelegate = new FakeHttpTransport();
+    private final FakeClock mClock = new FakeClock(0);
+    private final List<Long> mCallTimes = new ArrayList<>();
+    private Runnable mOnCall;
+
+    @Test
+    public void retriesIoErrorUntilSuccess() throws IOException {
+
+        mDelegate.fail(new SocketTimeoutException()).fail(new SocketTimeoutException())
+                .respond(200, "ok");
+
+        assertEquals(200, execute(retrying(3), get(TOKEN_URL)).getCode());
+        assertEquals(3, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+
+        IOException last = new SocketTimeoutException("third");
+        mDelegate.fail(new SocketTimeoutException()).fail(new SocketTimeoutException())
+                .fail(last);
+
+        assertSame(last, executeFailing(retrying(3), get(TOKEN_URL)));
+        assertEquals(3, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void retriesServerErrorAndReturnsTheLastOne() throws IOException {
+
+        mDelegate.respond(503, "").respond(500, "");
+
+        assertEquals(500, execute(retrying(2), get(TOKEN_URL)).getCode());
+        assertEquals(2, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void doesNotRetryClientError() throws IOException {
+
+        mDelegate.respond(400, "");
+
+        assertEquals(400, execute(retrying(3), get(TOKEN_URL)).getCode());
+        assertEquals(1, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void retriesPostOnlyWhenNotSent() throws IOException {
+
+        ResilientTransport transport = retrying(3);
+        mDelegate.fail(new ConnectException()).respond(200, "ok");
+        assertEquals(200, execute(transport, post(TOKEN_URL)).getCode());
+        assertEquals(2, mDelegate.getRequests().size());
+
+        IOException sent = new SocketTimeoutException();
+        mDelegate.fail(sent);
+        assertSame(sent, executeFailing(transport, post(TOKEN_URL)));
+        assertEquals(3, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void retriesPostOnTooManyRequestsOnly() throws IOException {
+
+        ResilientTransport transport = retrying(3);
+        mDelegate.respond(429, "").respond(200, "ok");
+        assertEquals(200, execute(transport, post(TOKEN_URL)).getCode());
+        assertEquals(2, mDelegate.getRequests().size());
+
+        mDelegate.respond(503, "");
+        assertEquals(503, execute(transport, post(TOKEN_URL)).getCode());
+        assertEquals(3, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void doesNotRetryWhenRetryAfterExceedsMaxBackoff() throws IOException {
+
+        mDelegate.respond(503, "", Constants.RETRY_AFTER, "120");
+
+        assertEquals(503, execute(retrying(3), get(TOKEN_URL)).getCode());
+        assertEquals(1, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void waitsForRetryAfterOnTheClock() throws IOException {
+
+        RunningClock clock = new RunningClock();
+        ResilientTransport transport = transport(new RetryPolicy.Builder()
+                .setMaxAttempts(2)
+                .setFailureCacheTime(0, TimeUnit.MILLISECONDS), 1, 1000, clock);
+        mDelegate.respond(503, "", Constants.RETRY_AFTER, "1").respond(200, "ok");
+
+        assertEquals(200, execute(transport, get(TOKEN_URL)).getCode());
+        assertEquals(2, mCallTimes.size());
+        long waited = mCallTimes.get(1) - mCallTimes.get(0);
+        assertTrue("Waited " + waited + " ms", waited >= 1000 && waited < 5000);
+    }
+
+    @Test
+    public void waitsNoLongerThanTheBackoffBound() throws IOException {
+
+        RunningClock clock = new RunningClock();
+        ResilientTransport transport = transport(new RetryPolicy.Builder()
+                .setMaxAttempts(3)
+                .setFailureCacheTime(0, TimeUnit.MILLISECONDS), 100, 200, clock);
+        mDelegate.fail(new SocketTimeoutException()).fail(new SocketTimeoutException())
+                .respond(200, "ok");
+
+        assertEquals(200, execute(transport, get(TOKEN_URL)).getCode());
+        assertEquals(3, mCallTimes.size());
+        // Jitter draws each wait below its bound: 100 ms for the first retry, 200 ms after.
+        assertTrue(mCallTimes.get(1) - mCallTimes.get(0) < 100 + 50);
+        assertTrue(mCallTimes.get(2) - mCallTimes.get(1) < 200 + 50);
+    }
+
+    @Test
+    public void failsFastRightAfterFailure() throws IOException {
+
+        ResilientTransport transport = transport(new RetryPolicy.Builder()
+                .setMaxAttempts(1)
+                .setCircuitBreaker(0, 0, TimeUnit.MILLISECONDS)
+                .setFailureCacheTime(FAILURE_CACHE_MILLIS, TimeUnit.MILLISECONDS));
+        IOException error = new SocketTimeoutException();
+        mDelegate.fail(error);
+        assertSame(error, executeFailing(transport, get(TOKEN_URL)));
+
+        // The query string does not make another endpoint, another path does.
+        mClock.advance(FAILURE_CACHE_MILLIS - 1);
+        assertSame(error, executeFailing(transport, get(TOKEN_URL + "?a=b")).getCause());
+        mDelegate.respond(200, "ok");
+        assertEquals(200, execute(transport, get("https://idp.example.com/userinfo")).getCode());
+        assertEquals(2, mDelegate.getRequests().size());
+
+        mClock.advance(1);
+        mDelegate.respond(200, "ok");
+        assertEquals(200, execute(transport, get(TOKEN_URL)).getCode());
+        assertEquals(3, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void opensCircuitAfterConsecutiveFailures() throws IOException {
+
+        ResilientTransport transport = breaking();
+        mDelegate.fail(new SocketTimeoutException());
+        executeFailing(transport, get(TOKEN_URL));
+        IOException second = new SocketTimeoutException();
+        mDelegate.fail(second);
+        executeFailing(transport, get(TOKEN_URL));
+
+        mClock.advance(OPEN_MILLIS - 1);
+        assertSame(second, executeFailing(transport, get(TOKEN_URL)).getCause());
+        assertEquals(2, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void closesCircuitAfterSuccessfulTrial() throws IOException {
+
+        final ResilientTransport transport = openCircuit();
+        mClock.advance(OPEN_MILLIS);
+
+        // Only one call is let through while the trial is in flight.
+        mOnCall = new Runnable() {
+            @Override
+            public void run() {
+
+                executeFailing(transport, get(TOKEN_URL));
+            }
+        };
+        mDelegate.respond(200, "ok");
+        assertEquals(200, execute(transport, get(TOKEN_URL)).getCode());
+
+        // Closed again, so a single failure does not open it.
+        mDelegate.fail(new SocketTimeoutException()).respond(200, "ok");
+        executeFailing(transport, get(TOKEN_URL));
+        assertEquals(200, execute(transport, get(TOKEN_URL)).getCode());
+        assertEquals(5, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void reopensCircuitAfterFailedTrial() throws IOException {
+
+        ResilientTransport transport = openCircuit();
+        mClock.advance(OPEN_MILLIS);
+        IOException trialError = new SocketTimeoutException();
+        mDelegate.fail(trialError);
+        assertSame(trialError, executeFailing(transport, get(TOKEN_URL)));
+
+        mClock.advance(OPEN_MILLIS - 1);
+        assertSame(trialError, executeFailing(transport, get(TOKEN_URL)).getCause());
+        mClock.advance(1);
+        mDelegate.respond(200, "ok");
+        assertEquals(200, execute(transport, get(TOKEN_URL)).getCode());
+        assertEquals(4, mDelegate.getRequests().size());
+    }
+
+    @Test
+    public void unexpectedErrorEndsTheTrial() throws IOException {
+
+        ResilientTransport transport = openCircuit();
+        mClock.advance(OPEN_MILLIS);
+        mOnCall = new Runnable() {
+            @Override
+            public void run() {
+
+                throw new IllegalStateException("Broken transport");
+            }
+        };
+        try {
+            execute(transport, get(TOKEN_URL));
+            fail("Expected the broken transport to throw");
+        } catch (IllegalStateException expected) {
+            // The trial ended without an outcome.
+        }
+
+        // Another trial is let through rather than the endpoint staying suspended for good.
+        mDelegate.respond(200, "ok");
+        assertEquals(200, execute(transport, get(TOKEN_URL)).getCode());
+    }
+
+    /**
+     * Returns a transport with two failed calls to the token endpoint, which opened its circuit.
+     */
+    private ResilientTransport openCircuit() {
+
+        ResilientTransport transport = breaking();
+        mDelegate.fail(new SocketTimeoutException()).fail(new SocketTimeoutException());
+        executeFailing(transport, get(TOKEN_URL));
+        executeFailing(transport, get(TOKEN_URL));
+        return transport;
+    }
+
+    private ResilientTransport retrying(int maxAttempts) {
+
+        return transport(new RetryPolicy.Builder()
+                .setMaxAttempts(maxAttempts)
+                .setFailureCacheTime(0, TimeUnit.MILLISECONDS));
+    }
+
+    private ResilientTransport breaking() {
+
+        return transport(new RetryPolicy.Builder()
+                .setMaxAttempts(1)
+                .setCircuitBreaker(2, OPEN_MILLIS, TimeUnit.MILLISECONDS)
+                .setFailureCacheTime(0, TimeUnit.MILLISECONDS));
+    }
+
+    private ResilientTransport transport(RetryPolicy.Builder policy) {
+
+        // A backoff bound of 1 ms always draws 0, so retries do not wait for the fake clock,
+        // which does not move on its own.
+        return transport(policy, 1, 1, mClock);
+    }
+
+    private ResilientTransport transport(RetryPolicy.Builder policy, long initialBackoffMillis,
+            long maxBackoffMillis, final Clock clock) {
+
+        HttpTransport delegate = new HttpTransport() {
+            @Override
+            public HttpCall newCall(HttpRequest request) {
+
+                mCallTimes.add(clock.elapsedRealtime());
+                Runnable onCall = mOnCall;
+                mOnCall = null;
+                if (onCall != null) {
+                    onCall.run();
+                }
+                return mDelegate.newCall(request);
+            }
+        };
+        return new ResilientTransport(delegate, policy.setBackoff(initialBackoffMillis,
+                maxBackoffMillis, TimeUnit.MILLISECONDS).build(), clock);
+    }
+
+    private static HttpRequest get(String url) {
+
+        return new HttpRequest.Builder(url).build();
+    }
+
+    private static HttpRequest post(String url) {
+
+        return new HttpRequest.Builder(url)
+                .post("application/x-www-form-urlencoded", new byte[0])
+                .build();
+    }
+
+    private static HttpResponse execute(HttpTransport transport, HttpRequest request)
+            throws IOException {
+
+        return transport.newCall(request).execute();
+    }
+
+    private static IOException executeFailing(HttpTransport transport, HttpRequest request) {
+
+        try {
+            execute(transport, request);
+        } catch (IOException e) {
+            return e;
+        }
+        fail("Expected the call to " + request.getUrl() + " to fail");
+        return null;
+    }
+
+    /**
+     * Fake clock that also moves with real time, so that the waits between attempts end.
+     */
+    private static final class RunningClock extends FakeClock {
+
+        private final long mStartNanos = System.nanoTime();
+
+        RunningClock() {
+
+            super(0);
+        }
+
+        @Override
+        public long elapsedRealtime() {
+
+            return super.elapsedRealtime()
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.http;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void countsFirstAttempt() {
+
+        assertEquals(3, RetryPolicy.DEFAULT.getMaxAttempts());
+        assertEquals(1, new RetryPolicy.Builder().setMaxAttempts(0).build().getMaxAttempts());
+    }
+
+    @Test
+    public void drawsBackoffBelowDoublingBound() {
+
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setBackoff(100, 1000, TimeUnit.MILLISECONDS)
+                .build();
+        long[] bounds = {100, 200, 400, 800, 1000, 1000};
+        for (int retry = 1; retry <= bounds.length; retry++) {
+            long bound = bounds[retry - 1];
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long backoff = policy.backoffMillis(retry);
+                assertTrue(backoff + " is out of [0, " + bound + ")", backoff >= 0
+                        && backoff < bound);
+                max = Math.max(max, backoff);
+            }
+            // Full jitter spreads the delays over the whole range.
+            assertTrue("Largest backoff " + max + " for bound " + bound, max >= bound * 9 / 10);
+        }
+    }
+
+    @Test
+    public void capsBackoffForLateRetries() {
+
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setBackoff(1, 8, TimeUnit.SECONDS)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.backoffMillis(64) < TimeUnit.SECONDS.toMillis(8));
+            assertTrue(policy.backoffMillis(Integer.MAX_VALUE) >= 0);
+        }
+    }
+}
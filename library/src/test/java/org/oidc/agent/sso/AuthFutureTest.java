@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.junit.After;
+import org.junit.Test;
+import org.oidc.agent.http.HttpCall;
+import org.oidc.agent.http.HttpResponse;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AuthFutureTest {
+
+    private final SdkScheduler mScheduler = new SdkScheduler(1);
+
+    @After
+    public void tearDown() {
+
+        mScheduler.shutdown();
+    }
+
+    @Test
+    public void deliversResultToCallbacksAddedBeforeAndAfter() {
+
+        AuthFuture<String> future = new AuthFuture<>();
+        final AtomicReference<String> before = new AtomicReference<>();
+        final AtomicReference<String> after = new AtomicReference<>();
+        future.addCallback(callback(before));
+
+        assertTrue(future.complete("value"));
+        assertFalse(future.fail(new IllegalStateException()));
+        future.addCallback(callback(after));
+
+        assertEquals("value", before.get());
+        assertEquals("value", after.get());
+    }
+
+    @Test
+    public void chainsOperationsWithThen() throws Exception {
+
+        AuthFuture<String> first = new AuthFuture<>();
+        final AuthFuture<Integer> second = new AuthFuture<>();
+        AuthFuture<Integer> chained = first.then(result -> {
+            assertEquals("abc", result);
+            return second;
+        });
+
+        first.complete("abc");
+        assertFalse(chained.isDone());
+        second.complete(3);
+
+        assertEquals(Integer.valueOf(3), chained.get(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void passesFailureThroughThen() throws Exception {
+
+        AuthFuture<String> first = new AuthFuture<>();
+        final AtomicBoolean started = new AtomicBoolean();
+        AuthFuture<Integer> chained = first.then(result -> {
+            started.set(true);
+            return AuthFuture.completed(1);
+        });
+        IllegalStateException error = new IllegalStateException();
+
+        first.fail(error);
+
+        assertFalse(started.get());
+        assertSame(error, failureOf(chained));
+    }
+
+    @Test
+    public void failsWhenContinuationThrows() throws Exception {
+
+        final Exception error = new Exception("cannot start");
+        AuthFuture<Integer> chained = AuthFuture.completed("abc").then(result -> {
+            throw error;
+        });
+
+        assertSame(error, failureOf(chained));
+    }
+
+    @Test
+    public void cancellingThenCancelsRunningOperation() {
+
+        AuthFuture<String> first = new AuthFuture<>();
+        AuthFuture<Integer> second = new AuthFuture<>();
+        AuthFuture<Integer> chained = first.then(result -> second);
+
+        chained.cancel(true);
+        assertTrue(first.isCancelled());
+
+        AuthFuture<String> done = AuthFuture.completed("abc");
+        AuthFuture<Integer> chainedAfter = done.then(result -> second);
+        chainedAfter.cancel(true);
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void cancellingWaiterKeepsSource() throws Exception {
+
+        AuthFuture<String> source = new AuthFuture<>();
+        AuthFuture<String> cancelled = source.newWaiter();
+        AuthFuture<String> waiting = source.newWaiter();
+
+        cancelled.cancel(true);
+        assertFalse(source.isDone());
+        source.complete("value");
+
+        assertEquals("value", waiting.get(0, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    public void cancelAbortsInFlightCall() {
+
+        AuthFuture<String> future = new AuthFuture<>();
+        RecordingCall call = new RecordingCall();
+        future.setInFlightCall(call);
+
+        future.cancel(true);
+
+        assertTrue(call.isCancelled());
+        try {
+            future.get();
+            fail("Expected a cancelled future");
+        } catch (CancellationException expected) {
+            // Expected.
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void completionDoesNotAbortInFlightCall() {
+
+        AuthFuture<String> future = new AuthFuture<>();
+        RecordingCall call = new RecordingCall();
+        future.setInFlightCall(call);
+
+        future.complete("value");
+
+        assertFalse(call.isCancelled());
+    }
+
+    @Test
+    public void deadlineFailsAndAbortsOperation() throws Exception {
+
+        AuthFuture<String> future = new AuthFuture<>();
+        RecordingCall call = new RecordingCall();
+        future.setInFlightCall(call);
+
+        future.withDeadline(50, TimeUnit.MILLISECONDS, mScheduler);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the deadline to fail the future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // The call is aborted right after the waiting callers were released.
+        assertTrue(call.mCancelled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deadlineIsIgnoredOnceCompleted() throws Exception {
+
+        AuthFuture<String> future = new AuthFuture<>();
+        future.withDeadline(50, TimeUnit.MILLISECONDS, mScheduler);
+
+        future.complete("value");
+        Thread.sleep(100);
+
+        assertEquals("value", future.get(0, TimeUnit.SECONDS));
+    }
+
+    private static AuthCallback<String> callback(final AtomicReference<String> result) {
+
+        return new AuthCallback<String>() {
+            @Override
+            public void onSuccess(String value) {
+
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+
+                result.set("failed");
+            }
+        };
+    }
+
+    private static Throwable failureOf(AuthFuture<?> future) throws Exception {
+
+        try {
+            future.get(0, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Expected the future to fail");
+        return null;
+    }
+
+    private static final class RecordingCall implements HttpCall {
+
+        private final CountDownLatch mCancelled = new CountDownLatch(1);
+
+        @Override
+        public HttpResponse execute() {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancel() {
+
+            mCancelled.countDown();
+        }
+
+        @Override
+        public boolean isCancelled() {
+
+            return mCancelled.getCount() == 0;
+        }
+    }
+}
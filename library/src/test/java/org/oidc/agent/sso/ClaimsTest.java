@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClaimsTest {
+
+    @Test
+    public void readsTypedValues() throws Exception {
+
+        Claims claims = Claims.fromJson(new JSONObject()
+                .put("sub", "alice")
+                .put("email_verified", true)
+                .put("phone_number_verified", "false")
+                .put("updated_at", 1600000000)
+                .put("auth_time", "1600000001")
+                .put("score", 0.5));
+
+        assertEquals("alice", claims.getString("sub"));
+        assertTrue(claims.getBoolean("email_verified", false));
+        assertFalse(claims.getBoolean("phone_number_verified", true));
+        assertEquals(1600000000L, claims.getLong("updated_at", 0));
+        assertEquals(1600000001L, claims.getLong("auth_time", 0));
+        assertEquals(0.5, claims.getDouble("score", 0), 0);
+        assertEquals(Long.valueOf(1600000000L), claims.get("updated_at"));
+    }
+
+    @Test
+    public void returnsDefaultsForAbsentOrMistypedClaims() throws Exception {
+
+        Claims claims = Claims.fromJson(new JSONObject()
+                .put("sub", "alice")
+                .put("empty", JSONObject.NULL));
+
+        assertFalse(claims.has("empty"));
+        assertNull(claims.get("missing"));
+        assertNull(claims.getString("missing"));
+        assertNull(claims.get(null));
+        assertTrue(claims.getBoolean("sub", true));
+        assertEquals(-1, claims.getLong("sub", -1));
+        assertNull(claims.getStringList("sub"));
+        assertNull(claims.getClaims("sub"));
+    }
+
+    @Test
+    public void readsArraysAndObjects() throws Exception {
+
+        Claims claims = Claims.fromJson(new JSONObject()
+                .put("groups", new JSONArray().put("admin").put("users"))
+                .put("mixed", new JSONArray().put("a").put(1))
+                .put("address", new JSONObject().put("country", "LK")));
+
+        assertEquals(Arrays.asList("admin", "users"), claims.getStringList("groups"));
+        assertNull(claims.getStringList("mixed"));
+        assertEquals(Arrays.<Object>asList("a", 1L), claims.getList("mixed"));
+        assertEquals("LK", claims.getClaims("address").getString("country"));
+    }
+
+    @Test
+    public void isReadOnly() throws Exception {
+
+        Claims claims = Claims.fromJson(new JSONObject()
+                .put("groups", new JSONArray().put("admin")));
+        assertUnmodifiable(claims.getStringList("groups"));
+        assertUnmodifiable(claims.names());
+
+        // Changing the JSON the claims were read from, or the one they return, has no effect.
+        JSONObject json = claims.toJson();
+        json.put("groups", "none");
+        assertEquals(Arrays.asList("admin"), claims.getStringList("groups"));
+    }
+
+    @Test
+    public void listsNamesInOrderAndConvertsBack() throws Exception {
+
+        JSONObject json = new JSONObject()
+                .put("sub", "alice")
+                .put("aud", new JSONArray().put("client"))
+                .put("exp", 1600000000L);
+        Claims claims = Claims.fromJson(json);
+
+        assertEquals(Arrays.asList("aud", "exp", "sub"), claims.names());
+        assertEquals(3, claims.size());
+        JSONObject converted = new JSONObject(claims.toString());
+        assertEquals(3, converted.length());
+        assertEquals("alice", converted.getString("sub"));
+        assertEquals("client", converted.getJSONArray("aud").getString(0));
+        assertEquals(1600000000L, converted.getLong("exp"));
+    }
+
+    private static void assertUnmodifiable(List<String> list) {
+
+        try {
+            list.add("other");
+            fail("Expected an unmodifiable list");
+        } catch (UnsupportedOperationException expected) {
+            // Expected.
+        }
+    }
+}
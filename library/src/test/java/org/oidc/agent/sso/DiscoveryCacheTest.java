@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryCacheTest {
+
+    private static final long NOW = 1600000000000L;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void usesDefaultLifetimeWithoutCachingHeaders() {
+
+        assertEquals(NOW + DiscoveryCache.DEFAULT_MAX_AGE_MILLIS, expiresAt(null, 0, 0));
+        assertEquals(NOW + DiscoveryCache.DEFAULT_MAX_AGE_MILLIS, expiresAt("public", 0, 0));
+    }
+
+    @Test
+    public void appliesMaxAge() {
+
+        assertEquals(NOW + TimeUnit.SECONDS.toMillis(600), expiresAt("public, max-age=600", 0,
+                0));
+        assertEquals(NOW + TimeUnit.SECONDS.toMillis(600), expiresAt("MAX-AGE = \"600\"", 0, 0));
+    }
+
+    @Test
+    public void prefersMaxAgeOverExpires() {
+
+        assertEquals(NOW + TimeUnit.SECONDS.toMillis(60),
+                expiresAt("max-age=60", NOW + 2 * HOUR, NOW));
+    }
+
+    @Test
+    public void takesShortestOfRepeatedMaxAge() {
+
+        assertEquals(NOW + TimeUnit.SECONDS.toMillis(30), expiresAt("max-age=60, max-age=30", 0,
+                0));
+    }
+
+    @Test
+    public void treatsNegativeOrInvalidMaxAgeAsStale() {
+
+        assertEquals(NOW, expiresAt("max-age=-5", NOW + HOUR, NOW));
+        assertEquals(NOW, expiresAt("max-age=soon", NOW + HOUR, NOW));
+        assertEquals(NOW, expiresAt("max-age", 0, 0));
+    }
+
+    @Test
+    public void treatsNoCacheAsStale() {
+
+        assertEquals(NOW, expiresAt("no-cache", 0, 0));
+        assertEquals(NOW, expiresAt("max-age=600, no-cache", 0, 0));
+        assertEquals(NOW, expiresAt("no-cache=\"Set-Cookie\", max-age=600", 0, 0));
+    }
+
+    @Test
+    public void appliesExpiresRelativeToServerDate() {
+
+        // The server clock is two hours ahead; the response is fresh for one hour.
+        long serverNow = NOW + 2 * HOUR;
+        assertEquals(NOW + HOUR, expiresAt(null, serverNow + HOUR, serverNow));
+        // Without a Date header, Expires is compared with the local clock.
+        assertEquals(NOW + HOUR, expiresAt(null, NOW + HOUR, 0));
+        // Expires before Date means stale.
+        assertEquals(NOW, expiresAt(null, serverNow - HOUR, serverNow));
+    }
+
+    @Test
+    public void storesOnlyWithoutNoStore() {
+
+        assertTrue(DiscoveryCache.isStorable(DiscoveryCache.CacheControl.parse(null)));
+        assertTrue(DiscoveryCache.isStorable(DiscoveryCache.CacheControl.parse("no-cache")));
+        assertTrue(DiscoveryCache.isStorable(
+                DiscoveryCache.CacheControl.parse("x-no-store-hint=1")));
+        assertFalse(DiscoveryCache.isStorable(
+                DiscoveryCache.CacheControl.parse("max-age=60, No-Store")));
+    }
+
+    @Test
+    public void noStoreIsAlsoStale() {
+
+        assertEquals(NOW, expiresAt("no-store, max-age=600", 0, 0));
+    }
+
+    private static long expiresAt(String cacheControl, long expires, long date) {
+
+        return DiscoveryCache.computeExpiresAt(DiscoveryCache.CacheControl.parse(cacheControl),
+                expires, date, NOW);
+    }
+}
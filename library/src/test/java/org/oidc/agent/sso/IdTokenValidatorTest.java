@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.util.Constants;
+import org.oidc.agent.util.FakeClock;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IdTokenValidatorTest {
+
+    private static final String ISSUER = "https://localhost:9443/oauth2/token";
+    private static final String CLIENT_ID = "client";
+    private static final String NONCE = "n-0S6_WzA2Mj";
+    private static final long NOW = 1600000000000L;
+    private static final long SKEW = IdTokenValidator.ALLOWED_CLOCK_SKEW_MILLIS;
+
+    private IdTokenValidator mValidator;
+
+    @Before
+    public void setUp() {
+
+        FakeClock clock = new FakeClock(NOW);
+        mValidator = new IdTokenValidator(new JwksCache(new FakeSharedPreferences(), clock),
+                clock);
+    }
+
+    @Test
+    public void acceptsValidRs256Token() throws Throwable {
+
+        validate(Constants.RS256, claims(), NONCE);
+    }
+
+    @Test
+    public void acceptsValidEs256Token() throws Throwable {
+
+        validate(Constants.ES256, claims(), NONCE);
+    }
+
+    @Test
+    public void rejectsTamperedClaims() throws Throwable {
+
+        String token = TestKeys.sign(Constants.RS256, TestKeys.RSA_KID, claims());
+        String[] parts = token.split("\\.");
+        String forged = parts[0] + "." + TestKeys.encode(claims().put(Constants.SUBJECT, "admin")
+                .toString().getBytes("UTF-8")) + "." + parts[2];
+        expectInvalid(Jwt.decode(forged), Constants.RS256, NONCE);
+    }
+
+    @Test
+    public void rejectsEs256SignatureOfOtherContent() throws Throwable {
+
+        String token = TestKeys.sign(Constants.ES256, TestKeys.EC_KID, claims());
+        String other = TestKeys.sign(Constants.ES256, TestKeys.EC_KID,
+                claims().put(Constants.SUBJECT, "admin"));
+        String forged = other.substring(0, other.lastIndexOf('.'))
+                + token.substring(token.lastIndexOf('.'));
+        expectInvalid(Jwt.decode(forged), Constants.ES256, NONCE);
+    }
+
+    @Test
+    public void rejectsKeyOfOtherType() throws Throwable {
+
+        // The header claims ES256, but only an RSA key is at hand for the key ID.
+        Jwt idToken = Jwt.decode(TestKeys.sign(Constants.ES256, TestKeys.RSA_KID, claims()));
+        try {
+            mValidator.validate(idToken, TestKeys.RSA_PUBLIC, Constants.ES256, ISSUER, CLIENT_ID,
+                    NONCE);
+            fail("ES256 token verified with an RSA key");
+        } catch (ClientException expected) {
+            // The signature cannot be verified with this key.
+        }
+    }
+
+    @Test
+    public void rejectsOtherIssuer() throws Throwable {
+
+        expectInvalid(Constants.RS256, claims().put(Constants.ISSUER_CLAIM, "https://evil"),
+                NONCE);
+    }
+
+    @Test
+    public void rejectsOtherAudience() throws Throwable {
+
+        expectInvalid(Constants.RS256, claims().put(Constants.AUDIENCE, "other"), NONCE);
+    }
+
+    @Test
+    public void acceptsAudienceArrayWithClient() throws Throwable {
+
+        validate(Constants.RS256, claims().put(Constants.AUDIENCE,
+                new JSONArray().put(CLIENT_ID)), NONCE);
+    }
+
+    @Test
+    public void rejectsAudienceArrayWithoutClient() throws Throwable {
+
+        expectInvalid(Constants.RS256, claims().put(Constants.AUDIENCE,
+                new JSONArray().put("other")), NONCE);
+    }
+
+    @Test
+    public void requiresAuthorizedPartyForSeveralAudiences() throws Throwable {
+
+        JSONArray audiences = new JSONArray().put(CLIENT_ID).put("other");
+        expectInvalid(Constants.RS256, claims().put(Constants.AUDIENCE, audiences), NONCE);
+        expectInvalid(Constants.RS256, claims().put(Constants.AUDIENCE, audiences)
+                .put(Constants.AUTHORIZED_PARTY, "other"), NONCE);
+        validate(Constants.RS256, claims().put(Constants.AUDIENCE, audiences)
+                .put(Constants.AUTHORIZED_PARTY, CLIENT_ID), NONCE);
+    }
+
+    @Test
+    public void allowsClockSkewOnExpiry() throws Throwable {
+
+        validate(Constants.RS256, claims().put(Constants.EXPIRATION_TIME,
+                seconds(NOW - SKEW + 1000)), NONCE);
+        expectInvalid(Constants.RS256, claims().put(Constants.EXPIRATION_TIME,
+                seconds(NOW - SKEW)), NONCE);
+    }
+
+    @Test
+    public void rejectsTokenWithoutExpiry() throws Throwable {
+
+        JSONObject claims = claims();
+        claims.remove(Constants.EXPIRATION_TIME);
+        expectInvalid(Constants.RS256, claims, NONCE);
+    }
+
+    @Test
+    public void allowsClockSkewOnIssueTime() throws Throwable {
+
+        validate(Constants.RS256, claims().put(Constants.ISSUED_AT, seconds(NOW + SKEW)), NONCE);
+        expectInvalid(Constants.RS256, claims().put(Constants.ISSUED_AT,
+                seconds(NOW + SKEW + 1000)), NONCE);
+    }
+
+    @Test
+    public void rejectsTokenWithoutIssueTime() throws Throwable {
+
+        JSONObject claims = claims();
+        claims.remove(Constants.ISSUED_AT);
+        expectInvalid(Constants.RS256, claims, NONCE);
+    }
+
+    @Test
+    public void rejectsOtherNonce() throws Throwable {
+
+        expectInvalid(Constants.RS256, claims().put(Constants.NONCE, "replayed"), NONCE);
+    }
+
+    @Test
+    public void skipsNonceWhenNoneWasSent() throws Throwable {
+
+        validate(Constants.RS256, claims(), null);
+    }
+
+    @Test
+    public void requiresNonceOnlyForCodeExchange() throws Throwable {
+
+        JSONObject claims = claims();
+        claims.remove(Constants.NONCE);
+        // ID tokens from a refresh may omit the nonce.
+        validate(Constants.RS256, claims, NONCE);
+        try {
+            IdTokenValidator.checkNonce(Jwt.decode(TestKeys.sign(Constants.RS256,
+                    TestKeys.RSA_KID, claims)), NONCE, true);
+            fail("ID token without nonce accepted for the code exchange");
+        } catch (ClientException expected) {
+            // The token of the code exchange must carry the nonce.
+        }
+    }
+
+    @Test
+    public void acceptsOnlySupportedAlgorithms() throws Throwable {
+
+        IdTokenValidator.checkAlgorithm(Constants.RS256, Collections.<String>emptyList());
+        IdTokenValidator.checkAlgorithm(Constants.ES256, Arrays.asList("RS256", "ES256"));
+        for (String alg : Arrays.asList("none", "HS256", null)) {
+            try {
+                IdTokenValidator.checkAlgorithm(alg, Collections.<String>emptyList());
+                fail(alg + " accepted");
+            } catch (ClientException expected) {
+                // Only asymmetric algorithms with a published key are accepted.
+            }
+        }
+        try {
+            IdTokenValidator.checkAlgorithm(Constants.ES256, Collections.singletonList("RS256"));
+            fail("ES256 accepted although the server only advertises RS256");
+        } catch (ClientException expected) {
+            // The server does not sign with this algorithm.
+        }
+    }
+
+    @Test
+    public void convertsEs256SignatureToDer() throws Throwable {
+
+        byte[] jws = new byte[64];
+        // R has leading zero bytes, S has its high bit set and needs a sign byte.
+        jws[2] = 0x01;
+        jws[31] = 0x02;
+        jws[32] = (byte) 0x80;
+        jws[63] = 0x03;
+        byte[] der = IdTokenValidator.toDerSignature(jws);
+
+        byte[] r = {0x02, 30, 0x01, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                0, 0, 0, 0, 0, 0, 0, 0x02};
+        byte[] expected = new byte[2 + r.length + 2 + 33];
+        expected[0] = 0x30;
+        expected[1] = (byte) (expected.length - 2);
+        System.arraycopy(r, 0, expected, 2, r.length);
+        expected[2 + r.length] = 0x02;
+        expected[3 + r.length] = 33;
+        expected[5 + r.length] = (byte) 0x80;
+        expected[expected.length - 1] = 0x03;
+        assertArrayEquals(expected, der);
+    }
+
+    @Test
+    public void convertsZeroEs256Coordinate() throws Throwable {
+
+        byte[] jws = new byte[64];
+        jws[63] = 0x01;
+        byte[] der = IdTokenValidator.toDerSignature(jws);
+        assertArrayEquals(new byte[] {0x30, 6, 0x02, 1, 0, 0x02, 1, 0x01}, der);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void rejectsEs256SignatureOfWrongLength() throws Throwable {
+
+        IdTokenValidator.toDerSignature(new byte[63]);
+    }
+
+    @Test
+    public void exposesClaimsReadOnly() throws Throwable {
+
+        Jwt idToken = Jwt.decode(TestKeys.sign(Constants.RS256, TestKeys.RSA_KID,
+                claims().put(Constants.AUDIENCE, new JSONArray().put(CLIENT_ID))));
+        try {
+            ((List<?>) idToken.getClaim(Constants.AUDIENCE)).clear();
+            fail("Audience claim could be changed");
+        } catch (UnsupportedOperationException expected) {
+            // Claims are read-only.
+        }
+        assertEquals(Collections.singletonList(CLIENT_ID),
+                idToken.getClaims().getStringList(Constants.AUDIENCE));
+    }
+
+    private void validate(String alg, JSONObject claims, String nonce) throws Throwable {
+
+        String kid = Constants.ES256.equals(alg) ? TestKeys.EC_KID : TestKeys.RSA_KID;
+        mValidator.validate(Jwt.decode(TestKeys.sign(alg, kid, claims)), keyFor(alg), alg,
+                ISSUER, CLIENT_ID, nonce);
+    }
+
+    private void expectInvalid(String alg, JSONObject claims, String nonce) throws Throwable {
+
+        String kid = Constants.ES256.equals(alg) ? TestKeys.EC_KID : TestKeys.RSA_KID;
+        expectInvalid(Jwt.decode(TestKeys.sign(alg, kid, claims)), alg, nonce);
+    }
+
+    private void expectInvalid(Jwt idToken, String alg, String nonce) {
+
+        try {
+            mValidator.validate(idToken, keyFor(alg), alg, ISSUER, CLIENT_ID, nonce);
+            fail("Invalid ID token accepted: " + idToken.getClaims());
+        } catch (ClientException expected) {
+            // Rejected as it should be.
+        }
+    }
+
+    private static PublicKey keyFor(String alg) {
+
+        return Constants.ES256.equals(alg) ? TestKeys.EC_PUBLIC : TestKeys.RSA_PUBLIC;
+    }
+
+    private static JSONObject claims() throws Throwable {
+
+        return new JSONObject()
+                .put(Constants.ISSUER_CLAIM, ISSUER)
+                .put(Constants.SUBJECT, "alice")
+                .put(Constants.AUDIENCE, CLIENT_ID)
+                .put(Constants.NONCE, NONCE)
+                .put(Constants.ISSUED_AT, seconds(NOW - TimeUnit.MINUTES.toMillis(1)))
+                .put(Constants.EXPIRATION_TIME, seconds(NOW + TimeUnit.HOURS.toMillis(1)));
+    }
+
+    private static long seconds(long millis) {
+
+        return TimeUnit.MILLISECONDS.toSeconds(millis);
+    }
+}
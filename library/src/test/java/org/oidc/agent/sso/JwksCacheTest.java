@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.exception.ServerException;
+import org.oidc.agent.http.FakeHttpTransport;
+import org.oidc.agent.util.Constants;
+import org.oidc.agent.util.FakeClock;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class JwksCacheTest {
+
+    private static final String JWKS_URI = "https://localhost:9443/oauth2/jwks";
+
+    private FakeSharedPreferences mPrefs;
+    private FakeClock mClock;
+    private FakeHttpTransport mTransport;
+    private JwksCache mCache;
+
+    @Before
+    public void setUp() {
+
+        mPrefs = new FakeSharedPreferences();
+        mClock = new FakeClock(1600000000000L);
+        mTransport = new FakeHttpTransport();
+        mCache = new JwksCache(mPrefs, mClock);
+    }
+
+    @Test
+    public void fetchesKeySetOnce() throws Throwable {
+
+        mTransport.respond(200, jwks(TestKeys.rsaJwk(TestKeys.RSA_KID),
+                TestKeys.ecJwk(TestKeys.EC_KID)));
+
+        assertNull(mCache.getCachedKey(JWKS_URI, TestKeys.RSA_KID, Constants.RS256));
+        assertEquals(TestKeys.RSA_PUBLIC,
+                mCache.getKey(mTransport, JWKS_URI, TestKeys.RSA_KID, Constants.RS256));
+        assertEquals(TestKeys.EC_PUBLIC,
+                mCache.getKey(mTransport, JWKS_URI, TestKeys.EC_KID, Constants.ES256));
+        assertEquals(TestKeys.RSA_PUBLIC,
+                mCache.getCachedKey(JWKS_URI, TestKeys.RSA_KID, Constants.RS256));
+        assertEquals(1, mTransport.getRequests().size());
+    }
+
+    @Test
+    public void readsKeySetFromDiskAfterRestart() throws Throwable {
+
+        mTransport.respond(200, jwks(TestKeys.rsaJwk(TestKeys.RSA_KID)));
+        mCache.getKey(mTransport, JWKS_URI, TestKeys.RSA_KID, Constants.RS256);
+
+        JwksCache restarted = new JwksCache(mPrefs, mClock);
+        assertEquals(TestKeys.RSA_PUBLIC,
+                restarted.getCachedKey(JWKS_URI, TestKeys.RSA_KID, Constants.RS256));
+        assertNull(restarted.getCachedKey("https://other/jwks", TestKeys.RSA_KID,
+                Constants.RS256));
+    }
+
+    @Test
+    public void refetchesUnknownKeyAtMostOncePerInterval() throws Throwable {
+
+        mTransport.respond(200, jwks(TestKeys.rsaJwk(TestKeys.RSA_KID)));
+        mCache.getKey(mTransport, JWKS_URI, TestKeys.RSA_KID, Constants.RS256);
+
+        mClock.advance(JwksCache.MIN_REFRESH_INTERVAL_MILLIS - 1);
+        try {
+            mCache.getKey(mTransport, JWKS_URI, "rotated", Constants.RS256);
+            fail("Unknown key found");
+        } catch (ClientException expected) {
+            // Fetched too recently to fetch again.
+        }
+        assertEquals(1, mTransport.getRequests().size());
+
+        mClock.advance(1);
+        mTransport.respond(200, jwks(TestKeys.rsaJwk("rotated")));
+        assertEquals(TestKeys.RSA_PUBLIC,
+                mCache.getKey(mTransport, JWKS_URI, "rotated", Constants.RS256));
+        assertEquals(2, mTransport.getRequests().size());
+    }
+
+    @Test
+    public void fetchesKeySetOfOtherIssuerRightAway() throws Throwable {
+
+        mTransport.respond(200, jwks(TestKeys.rsaJwk(TestKeys.RSA_KID)));
+        mCache.getKey(mTransport, JWKS_URI, TestKeys.RSA_KID, Constants.RS256);
+
+        mTransport.respond(200, jwks(TestKeys.ecJwk(TestKeys.EC_KID)));
+        assertEquals(TestKeys.EC_PUBLIC, mCache.getKey(mTransport, "https://other/jwks",
+                TestKeys.EC_KID, Constants.ES256));
+        assertEquals(2, mTransport.getRequests().size());
+    }
+
+    @Test
+    public void doesNotMatchKeyOfOtherType() throws Throwable {
+
+        mTransport.respond(200, jwks(TestKeys.rsaJwk("shared")));
+        assertEquals(TestKeys.RSA_PUBLIC,
+                mCache.getKey(mTransport, JWKS_URI, "shared", Constants.RS256));
+
+        // The parsed RSA key must not be handed out for an ES256 token with the same key ID.
+        assertNull(mCache.getCachedKey(JWKS_URI, "shared", Constants.ES256));
+        try {
+            mCache.getKey(mTransport, JWKS_URI, "shared", Constants.ES256);
+            fail("RSA key returned for ES256");
+        } catch (ClientException expected) {
+            // No EC key with this ID, and the key set is too fresh to fetch again.
+        }
+    }
+
+    @Test
+    public void skipsEncryptionKeys() throws Throwable {
+
+        mTransport.respond(200, jwks(TestKeys.rsaJwk("enc").put(Constants.KEY_USE, "enc"),
+                TestKeys.rsaJwk(TestKeys.RSA_KID).put(Constants.KEY_USE, "sig")));
+
+        assertEquals(TestKeys.RSA_PUBLIC,
+                mCache.getKey(mTransport, JWKS_URI, null, Constants.RS256));
+        assertNull(mCache.getCachedKey(JWKS_URI, "enc", Constants.RS256));
+    }
+
+    @Test(expected = ServerException.class)
+    public void reportsServerError() throws Throwable {
+
+        mTransport.respond(503, "");
+        mCache.getKey(mTransport, JWKS_URI, TestKeys.RSA_KID, Constants.RS256);
+    }
+
+    @Test
+    public void validatesTokenWithCachedKey() throws Throwable {
+
+        mTransport.respond(200, jwks(TestKeys.ecJwk(TestKeys.EC_KID)));
+        IdTokenValidator validator = new IdTokenValidator(mCache, mClock);
+        long now = TimeUnit.MILLISECONDS.toSeconds(mClock.currentTimeMillis());
+        Jwt idToken = Jwt.decode(TestKeys.sign(Constants.ES256, TestKeys.EC_KID, new JSONObject()
+                .put(Constants.AUDIENCE, "client")
+                .put(Constants.ISSUED_AT, now)
+                .put(Constants.EXPIRATION_TIME, now + 60)));
+
+        validator.validate(idToken, mCache.getKey(mTransport, JWKS_URI, TestKeys.EC_KID,
+                Constants.ES256), Constants.ES256, null, "client", null);
+    }
+
+    private static String jwks(JSONObject... keys) throws Throwable {
+
+        JSONArray array = new JSONArray();
+        for (JSONObject key : keys) {
+            array.put(key);
+        }
+        return new JSONObject().put(Constants.KEYS, array).toString();
+    }
+}
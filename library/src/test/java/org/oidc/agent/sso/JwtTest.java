@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.util.Constants;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JwtTest {
+
+    private static final long EXPIRES_AT = 4102444800L;
+
+    @Test
+    public void decodesHeaderAndClaims() throws Throwable {
+
+        String token = TestKeys.sign(Constants.RS256, "key-1", new JSONObject()
+                .put(Constants.SUBJECT, "alice")
+                .put(Constants.EXPIRATION_TIME, EXPIRES_AT)
+                .put(Constants.ISSUED_AT, 1600000000L)
+                .put("email", "alice@example.com"));
+
+        Jwt jwt = Jwt.decode(token);
+
+        assertEquals(token, jwt.getToken());
+        assertEquals(Constants.RS256, jwt.getHeaderParameter(Constants.ALGORITHM));
+        assertEquals("key-1", jwt.getHeader().getString(Constants.KEY_ID));
+        assertEquals("alice", jwt.getSubject());
+        assertEquals(EXPIRES_AT * 1000, jwt.getExpiresAt());
+        assertEquals(1600000000000L, jwt.getIssuedAt());
+        assertEquals("alice@example.com", jwt.getClaim("email"));
+        assertFalse(jwt.isExpired());
+        String[] parts = token.split("\\.");
+        assertArrayEquals((parts[0] + "." + parts[1]).getBytes(Charset.forName("US-ASCII")),
+                jwt.getSigningInput());
+    }
+
+    @Test
+    public void reportsExpiry() throws Throwable {
+
+        Jwt expired = Jwt.decode(TestKeys.sign(Constants.RS256, null, new JSONObject()
+                .put(Constants.EXPIRATION_TIME, 1L)));
+        Jwt noExpiry = Jwt.decode(TestKeys.sign(Constants.RS256, null, new JSONObject()));
+
+        assertTrue(expired.isExpired());
+        assertFalse(noExpiry.isExpired());
+        assertEquals(0, noExpiry.getExpiresAt());
+    }
+
+    @Test
+    public void rejectsTokensThatAreNotJwts() {
+
+        String header = encode("{\"alg\":\"RS256\"}");
+        assertNotJwt("opaque-access-token");
+        assertNotJwt(header + "." + encode("{}"));
+        assertNotJwt(header + ".!!!." + "c2ln");
+        assertNotJwt(header + "." + encode("not json") + ".c2ln");
+    }
+
+    @Test
+    public void decodesOrNullForOpaqueTokens() throws Throwable {
+
+        assertNull(Jwt.decodeOrNull(null));
+        assertNull(Jwt.decodeOrNull("opaque-access-token"));
+        assertEquals("alice", Jwt.decodeOrNull(TestKeys.sign(Constants.RS256, null,
+                new JSONObject().put(Constants.SUBJECT, "alice"))).getSubject());
+    }
+
+    private static String encode(String value) {
+
+        return TestKeys.encode(value.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static void assertNotJwt(String token) {
+
+        try {
+            Jwt.decode(token);
+            fail("Expected " + token + " to be rejected");
+        } catch (ClientException expected) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.oidc.agent.util.Constants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OAuth2TokenResponseTest {
+
+    @Test
+    public void decodesTokensOnce() throws Throwable {
+
+        OAuth2TokenResponse tokens = new OAuth2TokenResponse();
+        tokens.setIdToken(TestKeys.sign(Constants.RS256, null,
+                new JSONObject().put(Constants.SUBJECT, "alice")));
+
+        Jwt decoded = tokens.getDecodedIdToken();
+
+        assertEquals("alice", decoded.getSubject());
+        assertSame(decoded, tokens.getDecodedIdToken());
+    }
+
+    @Test
+    public void remembersOpaqueAccessToken() throws Throwable {
+
+        OAuth2TokenResponse tokens = new OAuth2TokenResponse();
+        tokens.setAccessToken("opaque-access-token");
+
+        assertNull(tokens.getDecodedAccessToken());
+        assertNull(tokens.getDecodedAccessToken());
+        assertFalse(tokens.isAccessTokenExpired(0));
+
+        // A new token is decoded again.
+        tokens.setAccessToken(TestKeys.sign(Constants.RS256, null,
+                new JSONObject().put(Constants.EXPIRATION_TIME, 1L)));
+        assertEquals(1000, tokens.getDecodedAccessToken().getExpiresAt());
+        assertTrue(tokens.isAccessTokenExpired(0));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SdkSchedulerTest {
+
+    private static final String APP_THREAD = "app-thread";
+
+    private final SdkScheduler mScheduler = new SdkScheduler(1);
+    private final ExecutorService mAppExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+
+                    return new Thread(runnable, APP_THREAD);
+                }
+            });
+
+    @After
+    public void tearDown() {
+
+        mScheduler.shutdown();
+        mAppExecutor.shutdownNow();
+    }
+
+    @Test
+    public void keepsScheduledTasksWhenExecutorIsReplaced() throws InterruptedException {
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        final String[] threadName = new String[1];
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+
+                threadName[0] = Thread.currentThread().getName();
+                ran.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        mScheduler.setIoExecutor(mAppExecutor);
+
+        assertTrue("Scheduled task was dropped", ran.await(5, TimeUnit.SECONDS));
+        assertEquals(APP_THREAD, threadName[0]);
+    }
+
+    @Test
+    public void runsLaterTasksOnReplacedExecutor() throws InterruptedException {
+
+        mScheduler.setIoExecutor(mAppExecutor);
+        final CountDownLatch ran = new CountDownLatch(1);
+        final String[] threadName = new String[1];
+        mScheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                threadName[0] = Thread.currentThread().getName();
+                ran.countDown();
+            }
+        });
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(APP_THREAD, threadName[0]);
+    }
+}
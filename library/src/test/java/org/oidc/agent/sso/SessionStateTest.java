@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStateTest {
+
+    @Test
+    public void failedFirstLoginReturnsToIdle() {
+
+        SessionState discovering = SessionState.IDLE.discovering();
+        assertEquals(SessionState.Phase.DISCOVERING, discovering.getPhase());
+
+        SessionState settled = discovering.settled();
+
+        assertEquals(SessionState.Phase.IDLE, settled.getPhase());
+        assertFalse(settled.hasTokens());
+    }
+
+    @Test
+    public void failedLoginKeepsPreviousTokens() {
+
+        OAuth2TokenResponse tokens = new OAuth2TokenResponse();
+        SessionState loggedIn = SessionState.restored(null, null, tokens, null);
+
+        SessionState settled = loggedIn.discovering().settled();
+
+        assertEquals(SessionState.Phase.AUTHENTICATED, settled.getPhase());
+        assertSame(tokens, settled.getTokenResponse());
+    }
+
+    @Test
+    public void failedExchangeDropsTheExchange() {
+
+        AuthFuture<OAuth2TokenResponse> exchange = new AuthFuture<>();
+        SessionState exchanging = SessionState.IDLE.discovering().exchanging("code", exchange);
+        assertSame(exchange, exchanging.getExchange());
+
+        SessionState settled = exchanging.settled();
+
+        assertEquals(SessionState.Phase.IDLE, settled.getPhase());
+        assertNull(settled.getExchange());
+    }
+
+    @Test
+    public void failedExchangeDropsItsKeyButKeepsPreviousTokens() {
+
+        OAuth2TokenResponse tokens = new OAuth2TokenResponse();
+        SessionState exchanging = SessionState.restored(null, null, tokens, null)
+                .exchanging("state", new AuthFuture<OAuth2TokenResponse>());
+
+        SessionState settled = exchanging.settled();
+
+        assertEquals(SessionState.Phase.AUTHENTICATED, settled.getPhase());
+        assertSame(tokens, settled.getTokenResponse());
+        assertNull(settled.getExchangeKey());
+    }
+
+    @Test
+    public void exchangedTokensKeepTheirKey() {
+
+        OAuth2TokenResponse tokens = new OAuth2TokenResponse();
+        SessionState authenticated = SessionState.IDLE.discovering()
+                .exchanging("state", new AuthFuture<OAuth2TokenResponse>())
+                .authenticated(null, tokens, null);
+
+        assertEquals("state", authenticated.getExchangeKey());
+        assertEquals("state", authenticated.refreshing().settled().getExchangeKey());
+    }
+
+    @Test
+    public void failedRefreshKeepsTokens() {
+
+        OAuth2TokenResponse tokens = new OAuth2TokenResponse();
+        SessionState refreshing = SessionState.restored(null, null, tokens, null).refreshing();
+        assertTrue(refreshing.hasTokens());
+
+        SessionState settled = refreshing.settled();
+
+        assertEquals(SessionState.Phase.AUTHENTICATED, settled.getPhase());
+        assertSame(tokens, settled.getTokenResponse());
+    }
+
+    @Test
+    public void staleFlowDoesNotMatch() {
+
+        SessionState first = SessionState.IDLE.discovering();
+        SessionState second = first.settled().discovering();
+
+        assertNotEquals(first.getFlowId(), second.getFlowId());
+        assertTrue(second.isIn(SessionState.Phase.DISCOVERING, second.getFlowId()));
+        assertFalse(second.isIn(SessionState.Phase.DISCOVERING, first.getFlowId()));
+        assertFalse(second.isIn(SessionState.Phase.AUTHORIZING, second.getFlowId()));
+    }
+
+    @Test
+    public void refreshingStartsNewFlow() {
+
+        SessionState loggedIn = SessionState.restored(null, null, new OAuth2TokenResponse(),
+                null);
+        SessionState refreshing = loggedIn.refreshing();
+
+        assertEquals(SessionState.Phase.REFRESHING, refreshing.getPhase());
+        assertFalse(refreshing.refreshing().isIn(SessionState.Phase.REFRESHING,
+                refreshing.getFlowId()));
+    }
+
+    @Test
+    public void restoresPhaseFromWhatWasSaved() {
+
+        assertEquals(SessionState.Phase.IDLE,
+                SessionState.restored(null, null, null, null).getPhase());
+        assertEquals(SessionState.Phase.AUTHENTICATED,
+                SessionState.restored(null, null, new OAuth2TokenResponse(), null).getPhase());
+    }
+
+    @Test
+    public void discoveryUpdateKeepsPhaseAndFlow() {
+
+        SessionState discovering = SessionState.IDLE.discovering();
+
+        SessionState updated = discovering.withDiscovery(null, null);
+
+        assertTrue(updated.isIn(SessionState.Phase.DISCOVERING, discovering.getFlowId()));
+    }
+}
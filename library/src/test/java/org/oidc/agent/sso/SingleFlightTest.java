@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final String KEY = "token";
+
+    private final SingleFlight<String, String> mSingleFlight = new SingleFlight<>();
+    private final List<AuthFuture<String>> mStarted = new ArrayList<>();
+    private final SingleFlight.Starter<String> mStarter = new SingleFlight.Starter<String>() {
+        @Override
+        public void start(AuthFuture<String> future) {
+
+            synchronized (mStarted) {
+                mStarted.add(future);
+            }
+        }
+    };
+
+    @Test
+    public void startsOneOperationForConcurrentJoins() throws Exception {
+
+        int callers = 16;
+        final CountDownLatch go = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<AuthFuture<String>>> joins = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                joins.add(executor.submit(() -> {
+                    go.await();
+                    return mSingleFlight.join(KEY, mStarter);
+                }));
+            }
+            go.countDown();
+            List<AuthFuture<String>> waiters = new ArrayList<>();
+            for (Future<AuthFuture<String>> join : joins) {
+                waiters.add(join.get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(1, mStarted.size());
+            mStarted.get(0).complete("result");
+            for (AuthFuture<String> waiter : waiters) {
+                assertEquals("result", waiter.get(0, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void passesFailureToEveryWaiter() throws Exception {
+
+        AuthFuture<String> first = mSingleFlight.join(KEY, mStarter);
+        AuthFuture<String> second = mSingleFlight.join(KEY, mStarter);
+        IllegalStateException error = new IllegalStateException();
+
+        mStarted.get(0).fail(error);
+
+        assertSame(error, failureOf(first));
+        assertSame(error, failureOf(second));
+    }
+
+    @Test
+    public void cancellingOneWaiterKeepsSharedOperation() throws Exception {
+
+        AuthFuture<String> cancelled = mSingleFlight.join(KEY, mStarter);
+        AuthFuture<String> waiting = mSingleFlight.join(KEY, mStarter);
+
+        assertTrue(cancelled.cancel(true));
+
+        AuthFuture<String> shared = mStarted.get(0);
+        assertFalse(shared.isDone());
+        shared.complete("result");
+        assertEquals("result", waiting.get(0, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+    }
+
+    @Test
+    public void cancellingEveryWaiterCancelsSharedOperation() {
+
+        AuthFuture<String> first = mSingleFlight.join(KEY, mStarter);
+        AuthFuture<String> second = mSingleFlight.join(KEY, mStarter);
+
+        first.cancel(true);
+        second.cancel(true);
+
+        assertTrue(mStarted.get(0).isCancelled());
+        // An abandoned operation is not joined again.
+        mSingleFlight.join(KEY, mStarter);
+        assertEquals(2, mStarted.size());
+    }
+
+    @Test
+    public void startsNewOperationAfterCompletion() {
+
+        mSingleFlight.join(KEY, mStarter);
+        mStarted.get(0).complete("first");
+
+        AuthFuture<String> waiter = mSingleFlight.join(KEY, mStarter);
+
+        assertEquals(2, mStarted.size());
+        assertNotSame(mStarted.get(0), mStarted.get(1));
+        assertFalse(waiter.isDone());
+    }
+
+    @Test
+    public void keepsKeysApart() {
+
+        mSingleFlight.join(KEY, mStarter);
+        mSingleFlight.join("other", mStarter);
+
+        assertEquals(2, mStarted.size());
+    }
+
+    @Test
+    public void joinsAndCancelsConcurrentlyWithoutLosingWaiters() throws Exception {
+
+        final AtomicInteger starts = new AtomicInteger();
+        final SingleFlight.Starter<String> starter = new SingleFlight.Starter<String>() {
+            @Override
+            public void start(AuthFuture<String> future) {
+
+                starts.incrementAndGet();
+                synchronized (mStarted) {
+                    mStarted.add(future);
+                }
+            }
+        };
+        AuthFuture<String> kept = mSingleFlight.join(KEY, starter);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                tasks.add(executor.submit(() -> mSingleFlight.join(KEY, starter).cancel(true)));
+            }
+            for (Future<?> task : tasks) {
+                task.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The first waiter never left, so the operation was neither cancelled nor restarted.
+        assertEquals(1, starts.get());
+        mStarted.get(0).complete("result");
+        assertEquals("result", kept.get(0, TimeUnit.SECONDS));
+    }
+
+    private static Throwable failureOf(AuthFuture<?> future) throws Exception {
+
+        try {
+            future.get(0, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Expected the future to fail");
+        return null;
+    }
+}
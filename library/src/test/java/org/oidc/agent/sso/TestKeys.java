@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.oidc.agent.util.Constants;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import okio.ByteString;
+
+/**
+ * Fixed RS256 and ES256 key pairs, and helpers to sign tokens and publish the keys as JWKs.
+ */
+final class TestKeys {
+
+    static final String RSA_KID = "rsa-1";
+    static final String EC_KID = "ec-1";
+
+    static final PrivateKey RSA_PRIVATE = privateKey("RSA",
+            "MIICdQIBADANBgkqhkiG9w0BAQEFAASCAl8wggJbAgEAAoGBAI/07/QIdjwg88aKWcgmbx/qfY70"
+            + "Cjrt/9exlK4K3V3iWvNftF2Ffk6Jt60gA2mUYaWv/ouelGMkTDG4ge/N4bI4fg+slaRl735Jktzh"
+            + "syVc77yrMxM4CRyRGALoGNVITrDgOx4RyL8CQ5lParhfB0kMFQKkv3Oa7tdTJlk3iirJAgMBAAEC"
+            + "gYBFchxVpcVgAWeIZlKkjwH5rBXxIgJTZmAPLjAy+7PJqDpHAOrSWOVTPvWYM4Lh6n5mvy21LgWY"
+            + "hDirnb41MKVJI2cVkMY0z53+v8eRIz/DYgGS37Qn+yb56B6pYPg1Ez5DWbp/FJkyvyDsVV4wVPD3"
+            + "KElj8YjuH5TdhYLl3tC6HwJBAJCR/+VCgVv5ryRh2P5EF5+4EOnrqcq3XXFkLexAbLZEWANyu4cs"
+            + "Yj5l1W/sTd8WiHocKb8ArXmz0R/KFyXrudsCQQD+6eEyLrsSMluWKY/y5HBnCMW5jcvKW4ou1fQ3"
+            + "0C5nadyusbbMDQVx/j9rT0KCnkSyHSdWJyJ3mr/lmUKPn8krAkBZeHHFAa6rLFAvFPtFCQER0Mlu"
+            + "63EOSwLifRxKnOhquMs7fxL9qgM3GLDJ7pWW3gwifjF7ysCRlC51HQ3MYyGHAkBOnOwBIN46P2N1"
+            + "TL4C5yYu8Eqh7bPCZTaZOQxGxiH5bHFNQqsgBIgAXqtKObhGNe7ziwAdlpYPkp7JfNlFF77fAkAB"
+            + "govkiLKoK0uJKTCJcmMbv6R7nzVpU8NGbp7C0Q+xwwTXv0rraeI76BoD7Oaa5pIa2WlEB+Z9vTRW"
+            + "CLAl0Smb");
+    static final PublicKey RSA_PUBLIC = publicKey("RSA",
+            "MIGfMA0GCSqGSIb3DQEBAQUAA4GNADCBiQKBgQCP9O/0CHY8IPPGilnIJm8f6n2O9Ao67f/XsZSu"
+            + "Ct1d4lrzX7RdhX5OibetIANplGGlr/6LnpRjJEwxuIHvzeGyOH4PrJWkZe9+SZLc4bMlXO+8qzMT"
+            + "OAkckRgC6BjVSE6w4DseEci/AkOZT2q4XwdJDBUCpL9zmu7XUyZZN4oqyQIDAQAB");
+    static final PrivateKey EC_PRIVATE = privateKey("EC",
+            "MEECAQAwEwYHKoZIzj0CAQYIKoZIzj0DAQcEJzAlAgEBBCDkoN6ue9uN+2F0gT80sogrPEPab2h6"
+            + "UY1yGlQ6Mfmb5g==");
+    static final PublicKey EC_PUBLIC = publicKey("EC",
+            "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAEoWleDzZghh50jAtXwJz06xcAawCgUkdc6NxfZ2lJ"
+            + "PU8Xid3l+C2Vxl2cpL7Xk93RKtnOwqY+GJSfIVQiw9K2ZA==");
+
+    private TestKeys() {
+
+    }
+
+    /**
+     * Signs the claims into a JWS in compact serialization.
+     *
+     * @param alg    RS256 or ES256.
+     * @param kid    Key ID for the header, may be null.
+     * @param claims Claims.
+     * @return Signed token.
+     */
+    static String sign(String alg, String kid, JSONObject claims)
+            throws GeneralSecurityException, JSONException {
+
+        JSONObject header = new JSONObject().put(Constants.ALGORITHM, alg);
+        if (kid != null) {
+            header.put(Constants.KEY_ID, kid);
+        }
+        String signingInput = encode(header.toString().getBytes(Charset.forName("UTF-8"))) + "."
+                + encode(claims.toString().getBytes(Charset.forName("UTF-8")));
+        boolean ec = Constants.ES256.equals(alg);
+        Signature signature = Signature.getInstance(ec ? "SHA256withECDSA" : "SHA256withRSA");
+        signature.initSign(ec ? EC_PRIVATE : RSA_PRIVATE);
+        signature.update(signingInput.getBytes(Charset.forName("US-ASCII")));
+        byte[] bytes = signature.sign();
+        return signingInput + "." + encode(ec ? toJwsSignature(bytes) : bytes);
+    }
+
+    static JSONObject rsaJwk(String kid) throws JSONException {
+
+        RSAPublicKey key = (RSAPublicKey) RSA_PUBLIC;
+        return new JSONObject()
+                .put(Constants.KEY_TYPE, "RSA")
+                .put(Constants.KEY_ID, kid)
+                .put("n", encode(unsigned(key.getModulus(), 0)))
+                .put("e", encode(unsigned(key.getPublicExponent(), 0)));
+    }
+
+    static JSONObject ecJwk(String kid) throws JSONException {
+
+        ECPublicKey key = (ECPublicKey) EC_PUBLIC;
+        return new JSONObject()
+                .put(Constants.KEY_TYPE, "EC")
+                .put(Constants.KEY_ID, kid)
+                .put("crv", "P-256")
+                .put("x", encode(unsigned(key.getW().getAffineX(), 32)))
+                .put("y", encode(unsigned(key.getW().getAffineY(), 32)));
+    }
+
+    static String encode(byte[] bytes) {
+
+        return ByteString.of(bytes).base64Url().replace("=", "");
+    }
+
+    /**
+     * Converts an ASN.1 DER ECDSA signature to the concatenated R and S values used by JWS.
+     */
+    private static byte[] toJwsSignature(byte[] der) {
+
+        int rLength = der[3];
+        BigInteger r = new BigInteger(1, copy(der, 4, rLength));
+        int sLength = der[5 + rLength];
+        BigInteger s = new BigInteger(1, copy(der, 6 + rLength, sLength));
+        byte[] jws = new byte[64];
+        System.arraycopy(unsigned(r, 32), 0, jws, 0, 32);
+        System.arraycopy(unsigned(s, 32), 0, jws, 32, 32);
+        return jws;
+    }
+
+    private static byte[] unsigned(BigInteger value, int length) {
+
+        byte[] bytes = value.toByteArray();
+        int start = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+        int size = Math.max(bytes.length - start, length);
+        byte[] result = new byte[size];
+        System.arraycopy(bytes, start, result, size - (bytes.length - start),
+                bytes.length - start);
+        return result;
+    }
+
+    private static byte[] copy(byte[] source, int offset, int length) {
+
+        byte[] copy = new byte[length];
+        System.arraycopy(source, offset, copy, 0, length);
+        return copy;
+    }
+
+    private static PrivateKey privateKey(String algorithm, String encoded) {
+
+        try {
+            return KeyFactory.getInstance(algorithm).generatePrivate(
+                    new PKCS8EncodedKeySpec(ByteString.decodeBase64(encoded).toByteArray()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static PublicKey publicKey(String algorithm, String encoded) {
+
+        try {
+            return KeyFactory.getInstance(algorithm).generatePublic(
+                    new X509EncodedKeySpec(ByteString.decodeBase64(encoded).toByteArray()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
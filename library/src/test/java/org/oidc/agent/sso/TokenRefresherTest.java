@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.sso;
+
+import net.openid.appauth.TokenResponse;
+import org.junit.Test;
+import org.oidc.agent.exception.ClientException;
+import org.oidc.agent.http.FakeHttpTransport;
+import org.oidc.agent.http.HttpTransport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TokenRefresherTest {
+
+    private final FakeHost mHost = new FakeHost();
+    private final TokenRefresher mRefresher = new TokenRefresher(mHost);
+
+    @Test
+    public void sharesOneRefreshBetweenConcurrentCallers() throws Exception {
+
+        int callers = 16;
+        final CountDownLatch go = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<AuthFuture<OAuth2TokenResponse>>> refreshes = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                refreshes.add(executor.submit(new Callable<AuthFuture<OAuth2TokenResponse>>() {
+                    @Override
+                    public AuthFuture<OAuth2TokenResponse> call() throws Exception {
+
+                        go.await();
+                        return mRefresher.refresh();
+                    }
+                }));
+            }
+            go.countDown();
+            AuthFuture<OAuth2TokenResponse> shared = refreshes.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<AuthFuture<OAuth2TokenResponse>> refresh : refreshes) {
+                assertSame(shared, refresh.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, mHost.mTasks.size());
+    }
+
+    @Test
+    public void startsNewRefreshAfterFailure() throws Exception {
+
+        AuthFuture<OAuth2TokenResponse> first = mRefresher.refresh();
+        mHost.runTasks();
+
+        assertTrue(failureOf(first) instanceof ClientException);
+        AuthFuture<OAuth2TokenResponse> second = mRefresher.refresh();
+        assertNotSame(first, second);
+        assertEquals(1, mHost.mTasks.size());
+    }
+
+    @Test
+    public void abortsRefreshThatThrows() throws Exception {
+
+        OAuth2TokenResponse tokens = new OAuth2TokenResponse();
+        tokens.setRefreshToken("refresh-token");
+        // No discovery response, so building the request fails.
+        mHost.mRefreshing = SessionState.restored(null, null, tokens, null).refreshing();
+
+        AuthFuture<OAuth2TokenResponse> refresh = mRefresher.refresh();
+        mHost.runTasks();
+
+        assertTrue(failureOf(refresh) instanceof RuntimeException);
+        assertEquals(Collections.singletonList(mHost.mRefreshing), mHost.mAborted);
+        assertNotSame(refresh, mRefresher.refresh());
+    }
+
+    @Test
+    public void stopCancelsRefreshInFlight() {
+
+        AuthFuture<OAuth2TokenResponse> refresh = mRefresher.refresh();
+
+        mRefresher.stop();
+
+        assertTrue(refresh.isCancelled());
+        assertNotSame(refresh, mRefresher.refresh());
+    }
+
+    private static Throwable failureOf(AuthFuture<?> future) throws Exception {
+
+        try {
+            future.get(0, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Expected the future to fail");
+        return null;
+    }
+
+    /**
+     * Host whose scheduler queues tasks until the test runs them.
+     */
+    private static final class FakeHost implements TokenRefresher.Host {
+
+        final List<Runnable> mTasks = Collections.synchronizedList(new ArrayList<Runnable>());
+        final List<SessionState> mAborted = new ArrayList<>();
+        final SdkScheduler mScheduler = new SdkScheduler(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+
+                mTasks.add(command);
+            }
+        });
+        SessionState mRefreshing;
+
+        void runTasks() {
+
+            List<Runnable> tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+
+        @Override
+        public SdkScheduler getScheduler() {
+
+            return mScheduler;
+        }
+
+        @Override
+        public HttpTransport getHttpTransport() {
+
+            return new FakeHttpTransport();
+        }
+
+        @Override
+        public String getClientId() {
+
+            return "client";
+        }
+
+        @Override
+        public SessionState beginRefresh() {
+
+            return mRefreshing;
+        }
+
+        @Override
+        public boolean completeRefresh(SessionState refreshing,
+                OAuth2TokenResponse tokenResponse, TokenResponse appAuthResponse) {
+
+            throw new AssertionError("No refresh should complete");
+        }
+
+        @Override
+        public void abortRefresh(SessionState refreshing) {
+
+            mAborted.add(refreshing);
+        }
+
+        @Override
+        public void onAccessTokenExpired(OAuth2TokenResponse tokenResponse) {
+
+            throw new AssertionError("No token should expire");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.util;
+
+/**
+ * Clock whose time only moves when the test advances it.
+ */
+public class FakeClock implements Clock {
+
+    private long mCurrentTimeMillis;
+    private long mElapsedRealtime;
+
+    public FakeClock(long currentTimeMillis) {
+
+        mCurrentTimeMillis = currentTimeMillis;
+        mElapsedRealtime = 1000;
+    }
+
+    /**
+     * Moves both clocks forward.
+     *
+     * @param millis Time to advance by.
+     */
+    public synchronized void advance(long millis) {
+
+        mCurrentTimeMillis += millis;
+        mElapsedRealtime += millis;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+
+        return mCurrentTimeMillis;
+    }
+
+    @Override
+    public synchronized long elapsedRealtime() {
+
+        return mElapsedRealtime;
+    }
+}
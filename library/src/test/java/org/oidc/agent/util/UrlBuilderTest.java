@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.oidc.agent.util;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link UrlBuilder} and the deprecated {@link Util} produce the output of the
+ * original URLEncoder and commons-lang based implementation. The expected strings were captured
+ * from that implementation.
+ */
+@SuppressWarnings("deprecation")
+public class UrlBuilderTest {
+
+    @Test
+    public void keepsUnreservedCharacters() {
+
+        assertEquals("https://is/oidc/logout?id_token_hint=a.b-c_d*e%7Ef"
+                        + "&post_logout_redirect_uri=wso2sample%3A%2F%2Foauth",
+                new UrlBuilder("https://is/oidc/logout")
+                        .appendQueryParameter("id_token_hint", "a.b-c_d*e~f")
+                        .appendQueryParameter("post_logout_redirect_uri", "wso2sample://oauth")
+                        .build());
+    }
+
+    @Test
+    public void encodesReservedCharactersAndSpaces() {
+
+        assertEquals("https://is/authorize?tenant=t1&q=a+b%2Bc%26d%3De%2Ff%3Fg%23h%25i"
+                        + "&r=%3A%40%21%24%27%28%29*%2C%3B",
+                new UrlBuilder("https://is/authorize?tenant=t1")
+                        .appendQueryParameter("q", "a b+c&d=e/f?g#h%i")
+                        .appendQueryParameter("r", ":@!$'()*,;")
+                        .build());
+    }
+
+    @Test
+    public void encodesNonAsciiAsUtf8() {
+
+        assertEquals("https://is/x?name=Zo%C3%AB+%E6%97%A5%E6%9C%AC+%F0%9F%98%80",
+                new UrlBuilder("https://is/x")
+                        .appendQueryParameter("name", "Zoë 日本 😀")
+                        .build());
+    }
+
+    @Test
+    public void matchesUrlEncoder() throws Exception {
+
+        StringBuilder all = new StringBuilder();
+        for (char c = 0; c < 0x800; c++) {
+            all.append(c);
+        }
+        // Characters of every UTF-8 length, a surrogate pair and an unpaired surrogate.
+        String[] values = {all.toString(), "\u20ac\uffff", "😀", "a\ud83db",
+                "\ude00"};
+        for (String value : values) {
+            StringBuilder encoded = new StringBuilder();
+            UrlBuilder.encode(encoded, value);
+            assertEquals(URLEncoder.encode(value, "UTF-8"), encoded.toString());
+        }
+    }
+
+    @Test
+    public void handlesEmptyAndNullValues() {
+
+        assertEquals("https://is/x?empty=",
+                new UrlBuilder("https://is/x").appendQueryParameter("empty", "").build());
+        assertEquals("https://is/x",
+                new UrlBuilder("https://is/x").appendQueryParameter("skipped", null).build());
+        assertEquals("https://is/x", new UrlBuilder("https://is/x").build());
+    }
+
+    @Test
+    public void continuesExistingQuery() {
+
+        assertEquals("https://is/x?a=1", new UrlBuilder("https://is/x?")
+                .appendQueryParameter("a", "1").build());
+        assertEquals("https://is/x?a=1&b=2", new UrlBuilder("https://is/x?a=1&")
+                .appendQueryParameter("b", "2").build());
+    }
+
+    @Test
+    public void buildsFormBody() {
+
+        assertEquals("grant_type=authorization_code&code=a%2Fb+c",
+                UrlBuilder.formBody()
+                        .appendQueryParameter("grant_type", "authorization_code")
+                        .appendQueryParameter("code", "a/b c")
+                        .build());
+        assertEquals("", UrlBuilder.formBody().build());
+    }
+
+    @Test
+    public void utilKeepsOriginalOutput() throws Exception {
+
+        assertEquals("https://is/authorize?tenant=t1&q=a+b%2Bc%26d%3De%2Ff%3Fg%23h%25i"
+                        + "&r=%3A%40%21%24%27%28%29*%2C%3B",
+                Util.buildURLWithQueryParams("https://is/authorize?tenant=t1",
+                        params("q", "a b+c&d=e/f?g#h%i", "r", ":@!$'()*,;")));
+        assertEquals("https://is/x?name=Zo%C3%AB+%E6%97%A5%E6%9C%AC+%F0%9F%98%80",
+                Util.buildURLWithQueryParams("https://is/x",
+                        params("name", "Zoë 日本 😀")));
+        assertEquals("https://is/x?empty=",
+                Util.buildURLWithQueryParams("https://is/x", params("empty", "")));
+        assertEquals("https://is/x", Util.buildURLWithQueryParams("https://is/x", params()));
+        // Quirks of the original implementation: names are not encoded, and a separator is
+        // always added to an existing query.
+        assertEquals("https://is/x?k y=v",
+                Util.buildURLWithQueryParams("https://is/x", params("k y", "v")));
+        assertEquals("https://is/x?&a=1",
+                Util.buildURLWithQueryParams("https://is/x?", params("a", "1")));
+        assertEquals("https://is/x?a=1&&b=2",
+                Util.buildURLWithQueryParams("https://is/x?a=1&", params("b", "2")));
+    }
+
+    @Test
+    public void utilAppendsQueryString() {
+
+        assertEquals("https://is/x", Util.appendQueryParamsStringToUrl("https://is/x", ""));
+        assertEquals("https://is/x", Util.appendQueryParamsStringToUrl("https://is/x", null));
+        assertEquals("https://is/x?a=1", Util.appendQueryParamsStringToUrl("https://is/x", "?a=1"));
+        assertEquals("https://is/x?b=2&a=1",
+                Util.appendQueryParamsStringToUrl("https://is/x?b=2", "&a=1"));
+    }
+
+    private static Map<String, String> params(String... namesAndValues) {
+
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            params.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return params;
+    }
+}